@@ -3,6 +3,8 @@ package org.dfki.iot.attack.model;
 public class EventModel {
 	private String eventType;
 	private Object eventParam;
+	// Time the event occurred in milliseconds, events are written later
+	private long timestamp;
 
 	public String getEventType() {
 		return eventType;
@@ -20,12 +22,21 @@ public class EventModel {
 		this.eventParam = eventParam;
 	}
 
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((eventParam == null) ? 0 : eventParam.hashCode());
 		result = prime * result + ((eventType == null) ? 0 : eventType.hashCode());
+		result = prime * result + (int) (timestamp ^ (timestamp >>> 32));
 		return result;
 	}
 
@@ -48,12 +59,15 @@ public class EventModel {
 				return false;
 		} else if (!eventType.equals(other.eventType))
 			return false;
+		if (timestamp != other.timestamp)
+			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "EventModel [eventType=" + eventType + ", eventParam=" + eventParam + "]";
+		return "EventModel [eventType=" + eventType + ", eventParam=" + eventParam + ", timestamp=" + timestamp
+				+ "]";
 	}
 
 	/**
@@ -64,6 +78,7 @@ public class EventModel {
 		super();
 		this.eventType = eventType;
 		this.eventParam = eventParam;
+		this.timestamp = System.currentTimeMillis();
 	}
 
 	public EventModel() {
@@ -0,0 +1,255 @@
+package org.dfki.iot.attack.server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.core.StatusCodes;
+
+/**
+ * Limits CreateSession and ActivateSession requests before any session state
+ * is allocated or RSA work is done:
+ * <ul>
+ * <li>a token bucket per client address and one per subnet (/24 for IPv4;
+ * for IPv6 /64 per client and /48 per subnet),</li>
+ * <li>a cap on the number of sessions in the {@link SessionRegistry} for new
+ * sessions.</li>
+ * </ul>
+ * The state of a bucket is packed into one AtomicLong (refill time and
+ * tokens) and updated with compare-and-set, so the controller takes no locks.
+ * A request is charged to the bucket of its address first, so a single noisy
+ * client does not drain the bucket of its subnet.
+ *
+ * Each kind of bucket is capped at maxTrackedAddresses. When the cap is
+ * reached, buckets that have filled up again are dropped, at most once per
+ * second. Clients that still do not fit are rejected until buckets are
+ * dropped, so a flood from many addresses cannot grow the tables.
+ */
+class AdmissionController {
+
+	// Tokens are counted in thousandths, so a rate in tokens per second is
+	// the same number in thousandths per millisecond
+	private static final long SCALE = 1000;
+	private static final int TOKEN_BITS = 22;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	// Largest burst that fits into the token bits
+	private static final long MAX_BURST = TOKEN_MASK / SCALE;
+	private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Token buckets of one kind of key with the same rate and burst.
+	 */
+	private class BucketTable {
+		final long rate;
+		final long capacity;
+		final ConcurrentHashMap<Long, AtomicLong> buckets = new ConcurrentHashMap<Long, AtomicLong>();
+		final AtomicLong lastSweep = new AtomicLong(-SWEEP_INTERVAL_MILLIS);
+
+		BucketTable(int ratePerSecond, int burst) {
+			this.rate = Math.max(0, ratePerSecond);
+			this.capacity = Math.max(1, Math.min(burst, MAX_BURST)) * SCALE;
+		}
+
+		/**
+		 * @return true if a token was taken from the bucket of the key, false
+		 *         if the bucket is empty or the table is full
+		 */
+		boolean tryAcquire(long key, long now) {
+			AtomicLong bucket = buckets.get(key);
+			if (bucket == null) {
+				if (buckets.size() >= maxTrackedAddresses) {
+					sweep(now);
+					if (buckets.size() >= maxTrackedAddresses) {
+						return false;
+					}
+				}
+				AtomicLong newBucket = new AtomicLong(pack(now, capacity));
+				bucket = buckets.putIfAbsent(key, newBucket);
+				if (bucket == null) {
+					bucket = newBucket;
+				}
+			}
+			for (;;) {
+				long state = bucket.get();
+				long tokens = refill(state, now);
+				if (tokens < SCALE) {
+					return false;
+				}
+				if (bucket.compareAndSet(state, pack(now, tokens - SCALE))) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Returns a token taken by {@link #tryAcquire(long, long)}.
+		 */
+		void release(long key, long now) {
+			AtomicLong bucket = buckets.get(key);
+			if (bucket == null) {
+				return;
+			}
+			for (;;) {
+				long state = bucket.get();
+				long tokens = Math.min(refill(state, now) + SCALE, capacity);
+				if (bucket.compareAndSet(state, pack(now, tokens))) {
+					return;
+				}
+			}
+		}
+
+		private long refill(long state, long now) {
+			long elapsed = Math.max(0, now - (state >>> TOKEN_BITS));
+			long tokens = (state & TOKEN_MASK) + Math.min(elapsed, capacity) * rate;
+			return Math.min(tokens, capacity);
+		}
+
+		/**
+		 * Drops the buckets that are full, they are the same as new ones. Runs
+		 * at most once per sweep interval, a flood of new clients does not
+		 * scan the table on every request.
+		 */
+		private void sweep(long now) {
+			long last = lastSweep.get();
+			if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now)
+					|| !sweeping.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				Iterator<Map.Entry<Long, AtomicLong>> iterator = buckets.entrySet().iterator();
+				while (iterator.hasNext()) {
+					if (refill(iterator.next().getValue().get(), now) >= capacity) {
+						iterator.remove();
+					}
+				}
+			} finally {
+				sweeping.set(false);
+			}
+		}
+	}
+
+	private final SessionRegistry sessionRegistry;
+	private final int maxSessions;
+	private final int maxTrackedAddresses;
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private final BucketTable addressBuckets;
+	private final BucketTable subnetBuckets;
+	private final BucketTable address6Buckets;
+	private final BucketTable subnet6Buckets;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param addressRate
+	 *            requests per second of one client address
+	 * @param addressBurst
+	 *            requests one client address may send at once
+	 * @param subnetRate
+	 *            requests per second of one subnet
+	 * @param subnetBurst
+	 *            requests one subnet may send at once
+	 * @param maxSessions
+	 *            sessions the server holds at most
+	 * @param maxTrackedAddresses
+	 *            buckets per kind at most, requests of further clients are
+	 *            rejected
+	 */
+	public AdmissionController(SessionRegistry sessionRegistry, int addressRate, int addressBurst, int subnetRate,
+			int subnetBurst, int maxSessions, int maxTrackedAddresses) {
+		this.sessionRegistry = sessionRegistry;
+		this.maxSessions = maxSessions;
+		this.maxTrackedAddresses = maxTrackedAddresses;
+		this.addressBuckets = new BucketTable(addressRate, addressBurst);
+		this.subnetBuckets = new BucketTable(subnetRate, subnetBurst);
+		this.address6Buckets = new BucketTable(addressRate, addressBurst);
+		this.subnet6Buckets = new BucketTable(subnetRate, subnetBurst);
+	}
+
+	/**
+	 * @return null if a new session may be created for the client or the
+	 *         status to reject the request with
+	 */
+	public StatusCode admitCreateSession(SocketAddress remoteAddress) {
+		if (sessionRegistry.size() >= maxSessions) {
+			rejected.incrementAndGet();
+			return new StatusCode(StatusCodes.Bad_TooManySessions);
+		}
+		return admit(remoteAddress, StatusCodes.Bad_TooManySessions);
+	}
+
+	/**
+	 * @return null if the client may activate a session or the status to
+	 *         reject the request with
+	 */
+	public StatusCode admitActivateSession(SocketAddress remoteAddress) {
+		return admit(remoteAddress, StatusCodes.Bad_TooManyOperations);
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	private StatusCode admit(SocketAddress remoteAddress, UnsignedInteger status) {
+		if (!(remoteAddress instanceof InetSocketAddress)) {
+			return null;
+		}
+		InetAddress address = ((InetSocketAddress) remoteAddress).getAddress();
+		if (address == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis() - startTime;
+		byte[] bytes = address.getAddress();
+		boolean admitted;
+		if (address instanceof Inet4Address) {
+			long key = toLong(bytes, 0, 4);
+			admitted = tryAcquire(addressBuckets, key, subnetBuckets, key >>> 8, now);
+		} else {
+			long prefix = toLong(bytes, 0, 8);
+			admitted = tryAcquire(address6Buckets, prefix, subnet6Buckets, prefix >>> 16, now);
+		}
+		if (admitted) {
+			return null;
+		}
+		rejected.incrementAndGet();
+		return new StatusCode(status);
+	}
+
+	/**
+	 * Takes a token from the address bucket and then from the subnet bucket.
+	 * The address token is returned if the subnet bucket is empty.
+	 */
+	private static boolean tryAcquire(BucketTable addresses, long address, BucketTable subnets, long subnet,
+			long now) {
+		if (!addresses.tryAcquire(address, now)) {
+			return false;
+		}
+		if (!subnets.tryAcquire(subnet, now)) {
+			addresses.release(address, now);
+			return false;
+		}
+		return true;
+	}
+
+	private static long pack(long time, long tokens) {
+		return (time << TOKEN_BITS) | tokens;
+	}
+
+	private static long toLong(byte[] bytes, int offset, int length) {
+		long value = 0;
+		for (int i = offset; i < offset + length; i++) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+
+}
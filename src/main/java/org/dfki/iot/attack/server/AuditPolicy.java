@@ -0,0 +1,94 @@
+package org.dfki.iot.attack.server;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.dfki.iot.attack.util.GenericUtil;
+import org.dfki.iot.attack.util.ResourceWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The service operations to audit, compiled from the comma separated
+ * monitor.operations property into one bit per {@link ServiceOperation}. The
+ * property is read once and again when the configuration file changes, so a
+ * handler only tests a bit of an immutable value.
+ */
+class AuditPolicy {
+
+	private static final Logger logger = LoggerFactory.getLogger(AuditPolicy.class);
+
+	static final String CONFIG_FILE = "serverconfig.properties";
+	static final String PROPERTY = "monitor.operations";
+
+	private volatile long operations;
+
+	/**
+	 * Loads the policy and reloads it when the configuration file is modified.
+	 *
+	 * @param resourceWatcher
+	 *            watcher for the configuration file or null to load it only
+	 *            once
+	 */
+	public AuditPolicy(ResourceWatcher resourceWatcher) {
+		load();
+		if (resourceWatcher != null) {
+			resourceWatcher.watch(CONFIG_FILE, new Runnable() {
+				public void run() {
+					load();
+				}
+			});
+		}
+	}
+
+	public boolean isAudited(ServiceOperation operation) {
+		return (operations & (1L << operation.ordinal())) != 0;
+	}
+
+	/**
+	 * @return the operations that are audited
+	 */
+	public Set<ServiceOperation> getOperations() {
+		Set<ServiceOperation> result = EnumSet.noneOf(ServiceOperation.class);
+		long current = operations;
+		for (ServiceOperation operation : ServiceOperation.values()) {
+			if ((current & (1L << operation.ordinal())) != 0) {
+				result.add(operation);
+			}
+		}
+		return result;
+	}
+
+	void load() {
+		long compiled = compile(GenericUtil.readPropertyFile(CONFIG_FILE, PROPERTY));
+		if (compiled != operations) {
+			operations = compiled;
+			logger.info("Auditing operations {}", getOperations());
+		}
+	}
+
+	/**
+	 * @return the bits of the operations named in the property value; unknown
+	 *         names are ignored
+	 */
+	static long compile(String value) {
+		long bits = 0;
+		if (value == null) {
+			return bits;
+		}
+		for (String name : value.split(",")) {
+			name = name.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			ServiceOperation operation = ServiceOperation.forOperationName(name);
+			if (operation == null) {
+				logger.warn("Ignoring unknown operation {} in {}", name, PROPERTY);
+			} else {
+				bits |= 1L << operation.ordinal();
+			}
+		}
+		return bits;
+	}
+
+}
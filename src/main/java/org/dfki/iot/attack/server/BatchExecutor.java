@@ -0,0 +1,84 @@
+package org.dfki.iot.attack.server;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the items of a service request. Requests with up to batchSize items are
+ * processed on the calling thread. Larger requests are split into chunks of at
+ * most batchSize items that run on a fork-join pool. Every item writes its
+ * result to its own index, so the results keep the order of the request.
+ */
+class BatchExecutor {
+
+	/**
+	 * Processes the item at the given index of a request.
+	 */
+	interface ItemTask {
+		void run(int index);
+	}
+
+	private final ForkJoinPool pool;
+	private final int batchSize;
+
+	/**
+	 * @param batchSize
+	 *            requests with more items than this are processed in parallel
+	 * @param parallelism
+	 *            number of worker threads of the fork-join pool
+	 */
+	public BatchExecutor(int batchSize, int parallelism) {
+		this.batchSize = Math.max(1, batchSize);
+		this.pool = new ForkJoinPool(Math.max(1, parallelism));
+	}
+
+	/**
+	 * Runs task for the indexes 0 ... count - 1 and returns when all of them
+	 * are done.
+	 */
+	public void execute(int count, ItemTask task) {
+		if (count <= batchSize) {
+			for (int i = 0; i < count; i++) {
+				task.run(i);
+			}
+			return;
+		}
+		pool.invoke(new Chunk(task, 0, count));
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ItemTask task;
+		private final int from;
+		private final int to;
+
+		Chunk(ItemTask task, int from, int to) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= batchSize) {
+				for (int i = from; i < to; i++) {
+					task.run(i);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Chunk(task, from, middle), new Chunk(task, middle, to));
+		}
+	}
+
+}
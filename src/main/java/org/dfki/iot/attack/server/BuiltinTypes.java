@@ -0,0 +1,353 @@
+package org.dfki.iot.attack.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.DiagnosticInfo;
+import org.opcfoundation.ua.builtintypes.Enumeration;
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
+import org.opcfoundation.ua.builtintypes.ExtensionObject;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Structure;
+import org.opcfoundation.ua.builtintypes.UnsignedByte;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.UnsignedLong;
+import org.opcfoundation.ua.builtintypes.UnsignedShort;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.builtintypes.XmlElement;
+
+/**
+ * Type check of written values against the DataType of a variable.
+ *
+ * All tables are built once when the class is loaded: the builtin type id of a
+ * Java value class, and for every DataType (the builtin types 1 ... 25 and the
+ * abstract types Number, Integer, UInteger and Enumeration) a {@link Converter}
+ * per builtin type id of the written value. A missing converter means the type
+ * does not match. Checking a value is a hash lookup of its class and an array
+ * read, conversions are plain Java code.
+ */
+final class BuiltinTypes {
+
+	static final int BOOLEAN = 1;
+	static final int SBYTE = 2;
+	static final int BYTE = 3;
+	static final int INT16 = 4;
+	static final int UINT16 = 5;
+	static final int INT32 = 6;
+	static final int UINT32 = 7;
+	static final int INT64 = 8;
+	static final int UINT64 = 9;
+	static final int FLOAT = 10;
+	static final int DOUBLE = 11;
+	static final int STRING = 12;
+	static final int DATETIME = 13;
+	static final int GUID = 14;
+	static final int BYTESTRING = 15;
+	static final int XMLELEMENT = 16;
+	static final int NODEID = 17;
+	static final int EXPANDEDNODEID = 18;
+	static final int STATUSCODE = 19;
+	static final int QUALIFIEDNAME = 20;
+	static final int LOCALIZEDTEXT = 21;
+	static final int EXTENSIONOBJECT = 22;
+	static final int DATAVALUE = 23;
+	/** Variant, also the id of the abstract BaseDataType. */
+	static final int VARIANT = 24;
+	static final int DIAGNOSTICINFO = 25;
+	static final int NUMBER = 26;
+	static final int INTEGER = 27;
+	static final int UINTEGER = 28;
+	static final int ENUMERATION = 29;
+
+	private static final int TYPE_COUNT = 30;
+
+	/**
+	 * Converts a value of one builtin type to another.
+	 */
+	interface Converter {
+		Object convert(Object value);
+	}
+
+	private static final Converter IDENTITY = new Converter() {
+		public Object convert(Object value) {
+			return value;
+		}
+	};
+
+	/** Builtin type id by Java class of a value. */
+	private static final Map<Class<?>, Integer> TYPE_IDS = new HashMap<Class<?>, Integer>();
+
+	/** CONVERTERS[dataType][valueType], null if the value is not accepted. */
+	private static final Converter[][] CONVERTERS = new Converter[TYPE_COUNT][TYPE_COUNT];
+
+	/** Builtin type id for the subtypes of builtin types in namespace 0. */
+	private static final Map<Integer, Integer> ALIASES = new HashMap<Integer, Integer>();
+
+	static {
+		TYPE_IDS.put(Boolean.class, BOOLEAN);
+		TYPE_IDS.put(Byte.class, SBYTE);
+		TYPE_IDS.put(UnsignedByte.class, BYTE);
+		TYPE_IDS.put(Short.class, INT16);
+		TYPE_IDS.put(UnsignedShort.class, UINT16);
+		TYPE_IDS.put(Integer.class, INT32);
+		TYPE_IDS.put(UnsignedInteger.class, UINT32);
+		TYPE_IDS.put(Long.class, INT64);
+		TYPE_IDS.put(UnsignedLong.class, UINT64);
+		TYPE_IDS.put(Float.class, FLOAT);
+		TYPE_IDS.put(Double.class, DOUBLE);
+		TYPE_IDS.put(String.class, STRING);
+		TYPE_IDS.put(DateTime.class, DATETIME);
+		TYPE_IDS.put(UUID.class, GUID);
+		TYPE_IDS.put(ByteString.class, BYTESTRING);
+		// The stack also represents a ByteString as byte[]
+		TYPE_IDS.put(byte[].class, BYTESTRING);
+		TYPE_IDS.put(XmlElement.class, XMLELEMENT);
+		TYPE_IDS.put(NodeId.class, NODEID);
+		TYPE_IDS.put(ExpandedNodeId.class, EXPANDEDNODEID);
+		TYPE_IDS.put(StatusCode.class, STATUSCODE);
+		TYPE_IDS.put(QualifiedName.class, QUALIFIEDNAME);
+		TYPE_IDS.put(LocalizedText.class, LOCALIZEDTEXT);
+		TYPE_IDS.put(ExtensionObject.class, EXTENSIONOBJECT);
+		TYPE_IDS.put(DataValue.class, DATAVALUE);
+		TYPE_IDS.put(Variant.class, VARIANT);
+		TYPE_IDS.put(DiagnosticInfo.class, DIAGNOSTICINFO);
+
+		// Every builtin type accepts its own values, BaseDataType accepts all
+		for (int type = BOOLEAN; type <= DIAGNOSTICINFO; type++) {
+			CONVERTERS[type][type] = IDENTITY;
+			CONVERTERS[VARIANT][type] = IDENTITY;
+		}
+		for (int type = SBYTE; type <= DOUBLE; type++) {
+			CONVERTERS[NUMBER][type] = IDENTITY;
+		}
+		CONVERTERS[INTEGER][SBYTE] = IDENTITY;
+		CONVERTERS[INTEGER][INT16] = IDENTITY;
+		CONVERTERS[INTEGER][INT32] = IDENTITY;
+		CONVERTERS[INTEGER][INT64] = IDENTITY;
+		CONVERTERS[UINTEGER][BYTE] = IDENTITY;
+		CONVERTERS[UINTEGER][UINT16] = IDENTITY;
+		CONVERTERS[UINTEGER][UINT32] = IDENTITY;
+		CONVERTERS[UINTEGER][UINT64] = IDENTITY;
+		// Enumeration values are encoded as Int32
+		CONVERTERS[ENUMERATION][INT32] = IDENTITY;
+
+		// Widening conversions that cannot lose information
+		Converter toShort = new Converter() {
+			public Object convert(Object value) {
+				return Short.valueOf(((Number) value).shortValue());
+			}
+		};
+		Converter toUnsignedShort = new Converter() {
+			public Object convert(Object value) {
+				return new UnsignedShort(((Number) value).intValue());
+			}
+		};
+		Converter toInteger = new Converter() {
+			public Object convert(Object value) {
+				return Integer.valueOf(((Number) value).intValue());
+			}
+		};
+		Converter toUnsignedInteger = new Converter() {
+			public Object convert(Object value) {
+				return new UnsignedInteger(((Number) value).longValue());
+			}
+		};
+		Converter toLong = new Converter() {
+			public Object convert(Object value) {
+				return Long.valueOf(((Number) value).longValue());
+			}
+		};
+		Converter toUnsignedLong = new Converter() {
+			public Object convert(Object value) {
+				return new UnsignedLong(((Number) value).longValue());
+			}
+		};
+		Converter toFloat = new Converter() {
+			public Object convert(Object value) {
+				return Float.valueOf(((Number) value).floatValue());
+			}
+		};
+		Converter toDouble = new Converter() {
+			public Object convert(Object value) {
+				return Double.valueOf(((Number) value).doubleValue());
+			}
+		};
+		CONVERTERS[INT16][SBYTE] = toShort;
+		CONVERTERS[INT16][BYTE] = toShort;
+		CONVERTERS[UINT16][BYTE] = toUnsignedShort;
+		CONVERTERS[INT32][SBYTE] = toInteger;
+		CONVERTERS[INT32][BYTE] = toInteger;
+		CONVERTERS[INT32][INT16] = toInteger;
+		CONVERTERS[INT32][UINT16] = toInteger;
+		CONVERTERS[UINT32][BYTE] = toUnsignedInteger;
+		CONVERTERS[UINT32][UINT16] = toUnsignedInteger;
+		CONVERTERS[INT64][SBYTE] = toLong;
+		CONVERTERS[INT64][BYTE] = toLong;
+		CONVERTERS[INT64][INT16] = toLong;
+		CONVERTERS[INT64][UINT16] = toLong;
+		CONVERTERS[INT64][INT32] = toLong;
+		CONVERTERS[INT64][UINT32] = toLong;
+		CONVERTERS[UINT64][BYTE] = toUnsignedLong;
+		CONVERTERS[UINT64][UINT16] = toUnsignedLong;
+		CONVERTERS[UINT64][UINT32] = toUnsignedLong;
+		CONVERTERS[FLOAT][SBYTE] = toFloat;
+		CONVERTERS[FLOAT][BYTE] = toFloat;
+		CONVERTERS[FLOAT][INT16] = toFloat;
+		CONVERTERS[FLOAT][UINT16] = toFloat;
+		CONVERTERS[DOUBLE][SBYTE] = toDouble;
+		CONVERTERS[DOUBLE][BYTE] = toDouble;
+		CONVERTERS[DOUBLE][INT16] = toDouble;
+		CONVERTERS[DOUBLE][UINT16] = toDouble;
+		CONVERTERS[DOUBLE][INT32] = toDouble;
+		CONVERTERS[DOUBLE][UINT32] = toDouble;
+		CONVERTERS[DOUBLE][FLOAT] = toDouble;
+
+		// Subtypes of builtin types defined in namespace 0
+		ALIASES.put(288, UINT32); // IntegerId
+		ALIASES.put(289, UINT32); // Counter
+		ALIASES.put(290, DOUBLE); // Duration
+		ALIASES.put(291, STRING); // NumericRange
+		ALIASES.put(292, INT64); // Time
+		ALIASES.put(293, DATETIME); // Date
+		ALIASES.put(294, DATETIME); // UtcTime
+		ALIASES.put(295, STRING); // LocaleId
+		ALIASES.put(311, BYTESTRING); // ApplicationInstanceCertificate
+		ALIASES.put(12878, STRING); // NormalizedString
+		ALIASES.put(12879, STRING); // DecimalString
+		ALIASES.put(12880, STRING); // DurationString
+		ALIASES.put(12881, STRING); // TimeString
+		ALIASES.put(12882, STRING); // DateString
+	}
+
+	private BuiltinTypes() {
+	}
+
+	/**
+	 * @return the builtin type id of a DataType NodeId or 0 if it is not a
+	 *         builtin, abstract or alias type of namespace 0
+	 */
+	static int typeId(NodeId dataType) {
+		if (dataType == null || dataType.getNamespaceIndex() != 0
+				|| !(dataType.getValue() instanceof UnsignedInteger)) {
+			return 0;
+		}
+		long id = ((UnsignedInteger) dataType.getValue()).longValue();
+		if (id > 0 && id < TYPE_COUNT) {
+			return (int) id;
+		}
+		Integer alias = ALIASES.get((int) id);
+		return alias == null ? 0 : alias.intValue();
+	}
+
+	/**
+	 * @return the builtin type id of a scalar value or 0 if the value has no
+	 *         OPC UA representation
+	 */
+	static int typeIdOf(Object value) {
+		Integer id = TYPE_IDS.get(value.getClass());
+		if (id != null) {
+			return id.intValue();
+		}
+		if (value instanceof Enumeration) {
+			return INT32;
+		}
+		if (value instanceof Structure) {
+			return EXTENSIONOBJECT;
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks a written value against the DataType and ValueRank of a variable
+	 * and converts it to the DataType if needed.
+	 *
+	 * @param dataType
+	 *            the DataType attribute of the variable
+	 * @param valueRank
+	 *            the ValueRank attribute of the variable, -2 if unknown
+	 * @param value
+	 *            the written value
+	 * @return the value to store or null if the value does not match
+	 */
+	static Object coerce(NodeId dataType, int valueRank, Object value) {
+		int targetType = typeId(dataType);
+		if (targetType == 0 || value == null) {
+			return null;
+		}
+		boolean array = value instanceof Object[];
+		// Scalar (-1), Any (-2), ScalarOrOneDimension (-3),
+		// OneOrMoreDimensions (0) or n dimensions (n >= 1)
+		if (array ? valueRank == -1 : valueRank >= 0) {
+			return null;
+		}
+		if (!array) {
+			int type = typeIdOf(value);
+			Converter converter = type == 0 ? null : CONVERTERS[targetType][type];
+			return converter == null ? null : converter.convert(value);
+		}
+
+		Object[] elements = (Object[]) value;
+		int elementType = componentTypeId(value.getClass().getComponentType());
+		if (elementType == 0 && elements.length > 0 && elements[0] != null) {
+			// Object[] or an array of a Structure or Enumeration type
+			elementType = typeIdOf(elements[0]);
+		}
+		Converter converter = elementType == 0 ? null : CONVERTERS[targetType][elementType];
+		if (converter == null) {
+			return null;
+		}
+		// Every element has to be of the same type
+		for (Object element : elements) {
+			if (element != null && typeIdOf(element) != elementType) {
+				return null;
+			}
+		}
+		if (converter == IDENTITY) {
+			return value;
+		}
+		Object[] converted = newArray(targetType, elements.length);
+		for (int i = 0; i < elements.length; i++) {
+			converted[i] = elements[i] == null ? null : converter.convert(elements[i]);
+		}
+		return converted;
+	}
+
+	private static int componentTypeId(Class<?> componentType) {
+		Integer id = TYPE_IDS.get(componentType);
+		return id == null ? 0 : id.intValue();
+	}
+
+	/**
+	 * @return a new array for the targets of the widening conversions
+	 */
+	private static Object[] newArray(int type, int length) {
+		switch (type) {
+		case INT16:
+			return new Short[length];
+		case UINT16:
+			return new UnsignedShort[length];
+		case INT32:
+			return new Integer[length];
+		case UINT32:
+			return new UnsignedInteger[length];
+		case INT64:
+			return new Long[length];
+		case UINT64:
+			return new UnsignedLong[length];
+		case FLOAT:
+			return new Float[length];
+		case DOUBLE:
+			return new Double[length];
+		default:
+			return new Object[length];
+		}
+	}
+
+}
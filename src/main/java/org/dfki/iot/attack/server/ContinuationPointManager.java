@@ -0,0 +1,128 @@
+package org.dfki.iot.attack.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dfki.iot.attack.server.RoverAServer.ContinuationPoint;
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.core.BrowseResult;
+import org.opcfoundation.ua.core.StatusCodes;
+
+/**
+ * Browse continuation points of all sessions, stored per session under the
+ * authentication token. A session can hold at most maxPerSession points at a
+ * time; the points of a session are dropped when the session is closed or
+ * removed by the SessionReaper.
+ *
+ * Ids are random and opaque to the client; a point gets a new id for every
+ * page it returns.
+ */
+class ContinuationPointManager implements SessionListener {
+
+	private static final int ID_LENGTH = 16;
+
+	private final int maxPerSession;
+	private final NonceSource ids;
+	private final ConcurrentHashMap<NodeId, Map<ByteString, ContinuationPoint>> sessions = new ConcurrentHashMap<NodeId, Map<ByteString, ContinuationPoint>>();
+
+	/**
+	 * @param ids
+	 *            source of the random continuation point ids
+	 */
+	public ContinuationPointManager(int maxPerSession, NonceSource ids) {
+		this.maxPerSession = maxPerSession;
+		this.ids = ids;
+	}
+
+	/**
+	 * @return the number of continuation points a session may hold, as
+	 *         advertised in MaxBrowseContinuationPoints
+	 */
+	public int getMaxPerSession() {
+		return maxPerSession;
+	}
+
+	/**
+	 * Stores a continuation point for the session and assigns its id.
+	 *
+	 * @return the id of the point or null if the session already holds the
+	 *         maximum number of points
+	 */
+	public ByteString add(NodeId authenticationToken, ContinuationPoint continuationPoint) {
+		Map<ByteString, ContinuationPoint> points = points(authenticationToken);
+		synchronized (points) {
+			if (points.size() >= maxPerSession) {
+				return null;
+			}
+			ByteString id = ids.nextByteString(ID_LENGTH);
+			continuationPoint.setCurrentContinuationPoint(id);
+			points.put(id, continuationPoint);
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the next page of a continuation point of the session. The point
+	 * is released after its last page.
+	 *
+	 * @return the next page or Bad_ContinuationPointInvalid if the session
+	 *         does not hold the point
+	 */
+	public BrowseResult next(NodeId authenticationToken, ByteString id) {
+		Map<ByteString, ContinuationPoint> points = sessions.get(authenticationToken);
+		if (points == null || id == null) {
+			return new BrowseResult(new StatusCode(StatusCodes.Bad_ContinuationPointInvalid), null, null);
+		}
+		synchronized (points) {
+			ContinuationPoint continuationPoint = points.remove(id);
+			if (continuationPoint == null) {
+				return new BrowseResult(new StatusCode(StatusCodes.Bad_ContinuationPointInvalid), null, null);
+			}
+			BrowseResult result = continuationPoint.getNextReferencesDescriptions(ids.nextByteString(ID_LENGTH));
+			if (result.getContinuationPoint() != null) {
+				// More pages left: keep the point under its new id
+				points.put(result.getContinuationPoint(), continuationPoint);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Releases a continuation point of the session.
+	 *
+	 * @return false if the session does not hold the point
+	 */
+	public boolean release(NodeId authenticationToken, ByteString id) {
+		Map<ByteString, ContinuationPoint> points = sessions.get(authenticationToken);
+		if (points == null || id == null) {
+			return false;
+		}
+		synchronized (points) {
+			return points.remove(id) != null;
+		}
+	}
+
+	public void sessionCreated(Session session) {
+		// Points are stored on demand
+	}
+
+	public void sessionClosed(Session session) {
+		sessions.remove(session.getAuthenticationToken());
+	}
+
+	private Map<ByteString, ContinuationPoint> points(NodeId authenticationToken) {
+		Map<ByteString, ContinuationPoint> points = sessions.get(authenticationToken);
+		if (points == null) {
+			Map<ByteString, ContinuationPoint> newPoints = new HashMap<ByteString, ContinuationPoint>();
+			points = sessions.putIfAbsent(authenticationToken, newPoints);
+			if (points == null) {
+				points = newPoints;
+			}
+		}
+		return points;
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.dfki.iot.attack.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.dfki.iot.attack.util.ResourceWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * User names and salted password hashes, loaded once from a properties file
+ * on the classpath and loaded again when the file changes.
+ *
+ * Every entry has the form
+ *
+ * <pre>
+ * user=pbkdf2-sha256:&lt;iterations&gt;:&lt;base64 salt&gt;:&lt;base64 hash&gt;
+ * </pre>
+ *
+ * Entries are created with {@link #main(String[])}. Hashes are compared in
+ * constant time, and a password for an unknown user costs the same as for a
+ * known one.
+ */
+class CredentialStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(CredentialStore.class);
+
+	private static final String SCHEME = "pbkdf2-sha256";
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int DEFAULT_ITERATIONS = 10000;
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 32;
+
+	private static class Credential {
+		final int iterations;
+		final byte[] salt;
+		final byte[] hash;
+
+		Credential(int iterations, byte[] salt, byte[] hash) {
+			this.iterations = iterations;
+			this.salt = salt;
+			this.hash = hash;
+		}
+	}
+
+	// Checked for unknown users, so that they take as long as known ones
+	private static final Credential UNKNOWN_USER = new Credential(DEFAULT_ITERATIONS, new byte[SALT_LENGTH],
+			new byte[HASH_LENGTH]);
+
+	private final String resourceName;
+	private volatile Map<String, Credential> users = Collections.emptyMap();
+
+	/**
+	 * Loads the users from the resource and reloads them when the file is
+	 * modified.
+	 *
+	 * @param resourceWatcher
+	 *            watcher for the resource or null to load it only once
+	 */
+	public CredentialStore(String resourceName, ResourceWatcher resourceWatcher) throws IOException {
+		this.resourceName = resourceName;
+		load();
+		if (resourceWatcher != null) {
+			resourceWatcher.watch(resourceName, new Runnable() {
+				public void run() {
+					try {
+						load();
+					} catch (IOException e) {
+						// Keep the users that have been loaded before
+						logger.warn("Unable to reload {}: {}", CredentialStore.this.resourceName, e.toString());
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return true if the user exists and the password matches
+	 */
+	public boolean verify(String userName, String password) {
+		Credential credential = userName == null ? null : users.get(userName);
+		boolean known = credential != null;
+		if (!known) {
+			credential = UNKNOWN_USER;
+		}
+		byte[] hash = hash(password == null ? "" : password, credential.salt, credential.iterations);
+		return MessageDigest.isEqual(hash, credential.hash) && known;
+	}
+
+	public int size() {
+		return users.size();
+	}
+
+	/**
+	 * Replaces all users with the content of the resource.
+	 */
+	void load() throws IOException {
+		InputStream input = CredentialStore.class.getClassLoader().getResourceAsStream(resourceName);
+		if (input == null) {
+			throw new IOException("Unable to find " + resourceName);
+		}
+		Properties properties = new Properties();
+		try {
+			properties.load(input);
+		} finally {
+			input.close();
+		}
+		Map<String, Credential> loaded = new HashMap<String, Credential>();
+		for (String userName : properties.stringPropertyNames()) {
+			Credential credential = parse(properties.getProperty(userName));
+			if (credential == null) {
+				logger.warn("Ignoring user {} in {}: not a {} entry", userName, resourceName, SCHEME);
+			} else {
+				loaded.put(userName, credential);
+			}
+		}
+		users = loaded;
+		logger.info("Loaded {} users from {}", loaded.size(), resourceName);
+	}
+
+	private static Credential parse(String entry) {
+		String[] parts = entry.trim().split(":");
+		if (parts.length != 4 || !SCHEME.equals(parts[0])) {
+			return null;
+		}
+		try {
+			return new Credential(Integer.parseInt(parts[1]), Base64.getDecoder().decode(parts[2]),
+					Base64.getDecoder().decode(parts[3]));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static byte[] hash(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * @return a new entry for the password with a random salt
+	 */
+	static String createEntry(String password) {
+		byte[] salt = new byte[SALT_LENGTH];
+		new SecureRandom().nextBytes(salt);
+		return SCHEME + ":" + DEFAULT_ITERATIONS + ":" + Base64.getEncoder().encodeToString(salt) + ":"
+				+ Base64.getEncoder().encodeToString(hash(password, salt, DEFAULT_ITERATIONS));
+	}
+
+	/**
+	 * Prints the users.properties line for a user name and password.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: CredentialStore <user name> <password>");
+			return;
+		}
+		System.out.println(args[0] + "=" + createEntry(args[1]));
+	}
+
+}
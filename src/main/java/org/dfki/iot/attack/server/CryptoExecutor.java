@@ -0,0 +1,166 @@
+package org.dfki.iot.attack.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.common.ServiceFaultException;
+import org.opcfoundation.ua.core.ServiceFault;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.endpoint.EndpointServiceRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded thread pool for service requests that need asymmetric crypto
+ * (CreateSession signatures, ActivateSession password decryption).
+ *
+ * The request is handled on a pool thread, which sends the response, so the
+ * transport thread returns at once and requests of established sessions are
+ * not stalled behind RSA operations. When all threads are busy and the queue
+ * is full, the request is rejected with Bad_TooManySessions.
+ *
+ * Queue depth, rejections and the time spent waiting and running are kept
+ * for monitoring.
+ */
+class CryptoExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(CryptoExecutor.class);
+
+	/**
+	 * Handles one request and sends its response.
+	 */
+	interface Task {
+		void run() throws ServiceFaultException;
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong totalRunNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong maxRunNanos = new AtomicLong();
+
+	/**
+	 * @param threads
+	 *            number of crypto threads
+	 * @param queueCapacity
+	 *            number of requests that may wait for a thread
+	 */
+	public CryptoExecutor(int threads, int queueCapacity) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		int poolSize = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "crypto-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Runs the task on the pool. Faults thrown by the task are sent as the
+	 * response of the request.
+	 *
+	 * @throws ServiceFaultException
+	 *             Bad_TooManySessions if the pool is saturated
+	 */
+	public void execute(final EndpointServiceRequest<?, ?> msgExchange, final Task task)
+			throws ServiceFaultException {
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					long started = System.nanoTime();
+					record(totalWaitNanos, maxWaitNanos, started - submitted);
+					try {
+						task.run();
+					} catch (ServiceFaultException e) {
+						msgExchange.sendFault(e);
+					} catch (RuntimeException e) {
+						logger.error("Crypto task failed", e);
+						msgExchange.sendFault(e);
+					} finally {
+						record(totalRunNanos, maxRunNanos, System.nanoTime() - started);
+						completed.incrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_TooManySessions));
+		}
+	}
+
+	public void shutdown() {
+		logger.info("Crypto executor: {}", this);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the number of requests waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the average time a request waited for a thread in microseconds
+	 */
+	public long getAverageWaitMicros() {
+		long count = completed.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / count / 1000;
+	}
+
+	/**
+	 * @return the average time a request ran on a thread in microseconds
+	 */
+	public long getAverageRunMicros() {
+		long count = completed.get();
+		return count == 0 ? 0 : totalRunNanos.get() / count / 1000;
+	}
+
+	public long getMaxWaitMicros() {
+		return maxWaitNanos.get() / 1000;
+	}
+
+	public long getMaxRunMicros() {
+		return maxRunNanos.get() / 1000;
+	}
+
+	@Override
+	public String toString() {
+		return "queued=" + getQueueDepth() + " active=" + getActiveCount() + " completed=" + getCompletedCount()
+				+ " rejected=" + getRejectedCount() + " avgWaitUs=" + getAverageWaitMicros() + " maxWaitUs="
+				+ getMaxWaitMicros() + " avgRunUs=" + getAverageRunMicros() + " maxRunUs=" + getMaxRunMicros();
+	}
+
+	private static void record(AtomicLong total, AtomicLong max, long nanos) {
+		total.addAndGet(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+}
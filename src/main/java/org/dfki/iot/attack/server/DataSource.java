@@ -0,0 +1,30 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.NodeId;
+
+/**
+ * Provides the current Value of a variable node, for example by reading it
+ * from a field device. Reads are cached by {@link DataSourceCache}, so an
+ * implementation is only called when a client asks for a value that is older
+ * than its maxAge.
+ *
+ * A data source is bound to a node in the nodeset with the dataSource key,
+ * which names a public implementation with a public no-argument constructor,
+ * see {@link NodeSetLoader}. One instance of each class serves all nodes bound
+ * to it and is called from several threads at once.
+ */
+public interface DataSource {
+
+	/**
+	 * Reads the current value of the node. May block while the device is
+	 * queried, it is called on a thread of the data source pool and not on a
+	 * request thread.
+	 *
+	 * @return the value with its status code and source timestamp
+	 * @throws Exception
+	 *             if the value cannot be read
+	 */
+	DataValue fetch(NodeId nodeId) throws Exception;
+
+}
@@ -0,0 +1,267 @@
+package org.dfki.iot.attack.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through cache for the Value of a node that is backed by a
+ * {@link DataSource}. The cache remembers when the value was fetched last and
+ * honors the maxAge of a read request:
+ * <ul>
+ * <li>maxAge 0 always fetches a new value,</li>
+ * <li>maxAge Int32.MAX is served from the cache once a value is present,</li>
+ * <li>otherwise a new value is fetched if the cached one is older than
+ * maxAge.</li>
+ * </ul>
+ * Concurrent reads that need a new value share a single fetch.
+ *
+ * Fetches run on a separate executor, see {@link #newFetchExecutor(int)}, so a
+ * slow device does not occupy the workers of the {@link BatchExecutor}. A
+ * reader on a fork-join worker waits for the fetch as a managed blocker, the
+ * pool starts a spare worker meanwhile.
+ *
+ * {@link #invalidate()} drops the cached value and detaches a fetch that is
+ * still running: its result is returned to the readers that already wait for
+ * it but is not cached.
+ */
+class DataSourceCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(DataSourceCache.class);
+
+	/**
+	 * Cached value and the time it was fetched, published together.
+	 */
+	private static class Entry {
+		final DataValue value;
+		final long fetchTime;
+
+		Entry(DataValue value, long fetchTime) {
+			this.value = value;
+			this.fetchTime = fetchTime;
+		}
+	}
+
+	/**
+	 * Fetch of a new value, unregisters itself from the pending fetch when it
+	 * is done.
+	 */
+	private class Fetch extends FutureTask<Entry> {
+
+		Fetch(Callable<Entry> fetch) {
+			super(fetch);
+		}
+
+		@Override
+		protected void done() {
+			pendingFetch.compareAndSet(this, null);
+		}
+	}
+
+	private final NodeId nodeId;
+	private final DataSource dataSource;
+	private final Executor fetchExecutor;
+	private volatile Entry entry;
+	private final AtomicReference<Fetch> pendingFetch = new AtomicReference<Fetch>();
+	// Incremented by invalidate(), guarded by this
+	private int generation;
+
+	/**
+	 * @param fetchExecutor
+	 *            runs the fetches of the data source or null to fetch on the
+	 *            reading thread
+	 */
+	public DataSourceCache(NodeId nodeId, DataSource dataSource, Executor fetchExecutor) {
+		this.nodeId = nodeId;
+		this.dataSource = dataSource;
+		this.fetchExecutor = fetchExecutor;
+	}
+
+	/**
+	 * @return a pool of daemon threads for the fetches of data sources
+	 */
+	public static ExecutorService newFetchExecutor(int threads) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		int poolSize = Math.max(1, threads);
+		return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "data-source-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @param maxAge
+	 *            maxAge of the read request in milliseconds
+	 * @return the cached or a newly fetched value. The server timestamp of
+	 *         the value is the time it was fetched.
+	 */
+	public DataValue read(double maxAge) {
+		Entry current = entry;
+		if (current != null && isFresh(current, maxAge)) {
+			return current.value;
+		}
+
+		Fetch fetch = pendingFetch.get();
+		while (fetch == null) {
+			final int startGeneration;
+			synchronized (this) {
+				startGeneration = generation;
+			}
+			Fetch newFetch = new Fetch(new Callable<Entry>() {
+				public Entry call() throws Exception {
+					return fetch(startGeneration);
+				}
+			});
+			if (pendingFetch.compareAndSet(null, newFetch)) {
+				// This reader starts the fetch, other readers wait for it
+				fetch = newFetch;
+				if (fetchExecutor == null) {
+					newFetch.run();
+				} else {
+					try {
+						fetchExecutor.execute(newFetch);
+					} catch (RejectedExecutionException e) {
+						// Shutting down
+						newFetch.cancel(false);
+						return lastUsableValue();
+					}
+				}
+			} else {
+				// Join the fetch of another reader, or start a new one if it
+				// completed meanwhile
+				fetch = pendingFetch.get();
+			}
+		}
+
+		try {
+			return await(fetch).value;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.warn("Unable to read {} from its data source: {}", nodeId, e.getCause().toString());
+		} catch (CancellationException e) {
+			// Shutting down
+		}
+		return lastUsableValue();
+	}
+
+	/**
+	 * @return the time of the last successful fetch in milliseconds or -1 if
+	 *         the value has not been fetched yet
+	 */
+	public long getLastFetchTime() {
+		Entry current = entry;
+		return current == null ? -1 : current.fetchTime;
+	}
+
+	/**
+	 * Drops the cached value, the next read fetches a new value. A fetch that
+	 * started before does not cache its result.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			generation++;
+			entry = null;
+		}
+		Fetch fetch = pendingFetch.get();
+		if (fetch != null) {
+			pendingFetch.compareAndSet(fetch, null);
+		}
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * Fetches a new value and caches it unless the cache was invalidated
+	 * since the given generation.
+	 */
+	private Entry fetch(int startGeneration) throws Exception {
+		DataValue fetched = dataSource.fetch(nodeId);
+		DateTime now = DateTime.currentTime();
+		DataValue value = fetched == null ? new DataValue(null, StatusCode.GOOD, null, now)
+				: new DataValue(fetched.getValue(), fetched.getStatusCode(), fetched.getSourceTimestamp(),
+						fetched.getSourcePicoseconds(), now, null);
+		Entry fetchedEntry = new Entry(value, now.getTimeInMillis());
+		synchronized (this) {
+			if (generation == startGeneration) {
+				entry = fetchedEntry;
+			}
+		}
+		return fetchedEntry;
+	}
+
+	/**
+	 * Waits for a fetch. On a fork-join worker the pool may start a spare
+	 * worker while this one is blocked.
+	 */
+	private static Entry await(final Fetch fetch) throws InterruptedException, ExecutionException {
+		if (!fetch.isDone()) {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				public boolean block() throws InterruptedException {
+					try {
+						fetch.get();
+					} catch (ExecutionException e) {
+						// Reported by the get below
+					} catch (CancellationException e) {
+						// Reported by the get below
+					}
+					return true;
+				}
+
+				public boolean isReleasable() {
+					return fetch.isDone();
+				}
+			});
+		}
+		return fetch.get();
+	}
+
+	private static boolean isFresh(Entry current, double maxAge) {
+		if (maxAge >= Integer.MAX_VALUE) {
+			return true;
+		}
+		if (maxAge <= 0) {
+			return false;
+		}
+		return System.currentTimeMillis() - current.fetchTime <= maxAge;
+	}
+
+	/**
+	 * @return the cached value marked as last usable value or a bad status if
+	 *         no value has been fetched yet
+	 */
+	private DataValue lastUsableValue() {
+		Entry current = entry;
+		if (current == null) {
+			return new DataValue(new StatusCode(StatusCodes.Bad_NoCommunication));
+		}
+		return new DataValue(current.value.getValue(), new StatusCode(StatusCodes.Uncertain_LastUsableValue),
+				current.value.getSourceTimestamp(), current.value.getServerTimestamp());
+	}
+
+}
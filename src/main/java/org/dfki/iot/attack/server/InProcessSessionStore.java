@@ -0,0 +1,65 @@
+package org.dfki.iot.attack.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+
+/**
+ * Sessions of this process only, kept in a concurrent map.
+ */
+class InProcessSessionStore implements SessionStore {
+
+	private final ConcurrentMap<NodeId, Session> sessions = new ConcurrentHashMap<NodeId, Session>();
+
+	public void setListener(SessionListener listener) {
+		// No other process changes these sessions
+	}
+
+	public Session put(Session session) {
+		return sessions.put(session.getAuthenticationToken(), session);
+	}
+
+	public Session get(NodeId authenticationToken) {
+		return sessions.get(authenticationToken);
+	}
+
+	public Session remove(NodeId authenticationToken) {
+		return sessions.remove(authenticationToken);
+	}
+
+	public boolean remove(Session session) {
+		return sessions.remove(session.getAuthenticationToken(), session);
+	}
+
+	public boolean expire(Session session, long now) {
+		return session.isExpired(now) && remove(session);
+	}
+
+	public boolean discard(Session session) {
+		return remove(session);
+	}
+
+	public void update(Session session) {
+		// The session object itself is the stored state
+	}
+
+	public void refresh(Session session) {
+		// The session object itself is the stored state
+	}
+
+	public Collection<Session> getSessions() {
+		return Collections.unmodifiableCollection(sessions.values());
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public void close() {
+		sessions.clear();
+	}
+
+}
@@ -0,0 +1,260 @@
+package org.dfki.iot.attack.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.Attributes;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+
+/**
+ * Attribute table of a single node. The attribute values are kept in an array
+ * indexed by the OPC UA attribute id (NodeId = 1 ... UserExecutable = 22), so
+ * a lookup is a bounds check and an array read instead of a hash lookup with a
+ * boxed key.
+ *
+ * The stored DataValues are immutable snapshots (see {@link ValueSnapshot}):
+ * readers share them without copying, writers replace them as a whole.
+ *
+ * A primitive Value attribute can be moved to an {@link OffHeapValueStore}
+ * with {@link #moveValueOffHeap(OffHeapValueStore)}. Reads of the Value then
+ * decode a new DataValue from the store. When the Value moves back to the heap
+ * it is set on the heap before its slot is released, so a reader that still
+ * holds the released slot falls back to the heap value.
+ *
+ * The Value of a variable can also be provided by a {@link DataSource}, see
+ * {@link #setDataSource(DataSource, NodeId, Executor)}, or be computed on every read by
+ * a {@link ValueProvider}.
+ */
+class NodeAttributes {
+
+	/** Highest attribute id defined by the OPC UA specification. */
+	static final int MAX_ATTRIBUTE_ID = 22;
+
+	private static final int VALUE_ID = Attributes.Value.intValue();
+
+	private final AtomicReferenceArray<DataValue> values = new AtomicReferenceArray<DataValue>(MAX_ATTRIBUTE_ID + 1);
+
+	private volatile OffHeapValueStore valueStore;
+	private volatile long valueHandle = -1;
+
+	private volatile DataSourceCache dataSource;
+
+	private volatile ValueProvider valueProvider;
+
+	/**
+	 * @param attributeId
+	 *            the attribute id as sent by the client
+	 * @return the value of the attribute or null if the node does not have
+	 *         this attribute
+	 */
+	public DataValue get(UnsignedInteger attributeId) {
+		if (attributeId == null) {
+			return null;
+		}
+		return get(attributeId.longValue());
+	}
+
+	/**
+	 * @param attributeId
+	 *            the attribute id
+	 * @return the value of the attribute or null if the node does not have
+	 *         this attribute
+	 */
+	public DataValue get(long attributeId) {
+		if (attributeId < 1 || attributeId > MAX_ATTRIBUTE_ID) {
+			return null;
+		}
+		if (attributeId == VALUE_ID) {
+			long handle = valueHandle;
+			if (handle >= 0) {
+				DataValue value = valueStore.read(handle);
+				if (value != null) {
+					return value;
+				}
+				// Released meanwhile, the value is on the heap now
+			}
+		}
+		return values.get((int) attributeId);
+	}
+
+	/**
+	 * Returns the Value attribute as it has to be sent for a read request, see
+	 * {@link ValueSnapshot#view(DataValue, double, TimestampsToReturn, DateTime)}.
+	 * An off heap value is decoded directly into the returned DataValue.
+	 *
+	 * @return the value or null if the node does not have a stored Value
+	 */
+	public DataValue readValue(double maxAge, TimestampsToReturn timestampsToReturn, DateTime now) {
+		long handle = valueHandle;
+		if (handle >= 0) {
+			DataValue value = valueStore.read(handle, maxAge, timestampsToReturn, now);
+			if (value != null) {
+				return value;
+			}
+		}
+		DataValue snapshot = values.get(VALUE_ID);
+		return snapshot == null ? null : ValueSnapshot.view(snapshot, maxAge, timestampsToReturn, now);
+	}
+
+	/**
+	 * @return true if the node has the given attribute
+	 */
+	public boolean contains(UnsignedInteger attributeId) {
+		if (attributeId != null && attributeId.longValue() == VALUE_ID
+				&& (valueHandle >= 0 || valueProvider != null || dataSource != null)) {
+			return true;
+		}
+		return get(attributeId) != null;
+	}
+
+	/**
+	 * Sets the value of an attribute. Returns this table so that the
+	 * attributes of a node can be declared in one expression.
+	 *
+	 * @param attributeId
+	 *            one of the {@link org.opcfoundation.ua.core.Attributes}
+	 * @param value
+	 *            the attribute value, must not be null
+	 * @return this attribute table
+	 */
+	public NodeAttributes put(UnsignedInteger attributeId, DataValue value) {
+		long id = attributeId.longValue();
+		if (id < 1 || id > MAX_ATTRIBUTE_ID) {
+			throw new IllegalArgumentException("Invalid attribute id " + attributeId);
+		}
+		if (value == null) {
+			throw new IllegalArgumentException("Attribute value must not be null");
+		}
+		if (id == VALUE_ID) {
+			long handle = valueHandle;
+			if (handle >= 0) {
+				if (!valueStore.write(handle, value)) {
+					moveValueOnHeap(handle, value);
+				}
+				return this;
+			}
+		}
+		values.set((int) id, value);
+		return this;
+	}
+
+	/**
+	 * Publishes a new snapshot of an existing attribute carrying the given
+	 * value. Readers see either the previous or the new snapshot.
+	 *
+	 * @return false if the node does not have this attribute
+	 */
+	public boolean publish(UnsignedInteger attributeId, Variant value) {
+		long handle = valueHandle;
+		if (handle >= 0 && attributeId.longValue() == VALUE_ID) {
+			if (valueStore.writeValue(handle, value, DateTime.currentTime())) {
+				return true;
+			}
+			DataValue current = valueStore.read(handle);
+			if (current != null) {
+				// The new value has no off heap representation, keep it on
+				// the heap from now on
+				moveValueOnHeap(handle, ValueSnapshot.withValue(current, value, DateTime.currentTime()));
+				return true;
+			}
+			// Released meanwhile, publish on the heap
+		}
+		DataValue current = get(attributeId);
+		if (current == null) {
+			return false;
+		}
+		values.set(attributeId.intValue(), ValueSnapshot.withValue(current, value, DateTime.currentTime()));
+		return true;
+	}
+
+	/**
+	 * Reads the Value attribute of this node from the given data source from
+	 * now on. Pass null to serve the stored value again.
+	 *
+	 * @param fetchExecutor
+	 *            runs the fetches of the data source, see
+	 *            {@link DataSourceCache#newFetchExecutor(int)}
+	 */
+	public void setDataSource(DataSource source, NodeId nodeId, Executor fetchExecutor) {
+		dataSource = source == null ? null : new DataSourceCache(nodeId, source, fetchExecutor);
+	}
+
+	/**
+	 * @return the cache of the data source of the Value attribute or null if
+	 *         the node has no data source
+	 */
+	public DataSourceCache getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * Computes the Value attribute of this node with the given provider from
+	 * now on. Pass null to serve the stored value again.
+	 */
+	public void setValueProvider(ValueProvider provider) {
+		valueProvider = provider;
+	}
+
+	/**
+	 * @return the provider of the Value attribute or null if the value is
+	 *         stored
+	 */
+	public ValueProvider getValueProvider() {
+		return valueProvider;
+	}
+
+	/**
+	 * Moves the Value attribute into the given store if it is a primitive
+	 * scalar. Must be called before the node is added to the NodeStore.
+	 *
+	 * @return true if the value is kept off heap
+	 */
+	boolean moveValueOffHeap(OffHeapValueStore store) {
+		DataValue value = values.get(VALUE_ID);
+		if (valueHandle >= 0 || value == null) {
+			return valueHandle >= 0;
+		}
+		long handle = store.allocate(value);
+		if (handle < 0) {
+			return false;
+		}
+		valueStore = store;
+		valueHandle = handle;
+		values.set(VALUE_ID, null);
+		return true;
+	}
+
+	/**
+	 * Moves the Value attribute back to the heap and returns its off heap
+	 * slot to the store, e.g. when the node is removed.
+	 */
+	synchronized void releaseValue() {
+		long handle = valueHandle;
+		if (handle >= 0) {
+			DataValue current = valueStore.read(handle);
+			if (current != null) {
+				values.set(VALUE_ID, current);
+			}
+			valueHandle = -1;
+			valueStore.release(handle);
+		}
+	}
+
+	/**
+	 * Sets the Value attribute on the heap and then releases the off heap
+	 * slot, if the Value still is in the given slot.
+	 */
+	private synchronized void moveValueOnHeap(long handle, DataValue value) {
+		values.set(VALUE_ID, value);
+		if (valueHandle == handle) {
+			valueHandle = -1;
+			valueStore.release(handle);
+		}
+	}
+
+}
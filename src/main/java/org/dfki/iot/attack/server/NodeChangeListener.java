@@ -0,0 +1,16 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+
+/**
+ * Notified by the {@link WritePipeline} after an attribute of a node has been
+ * written. Called on the thread that committed the write, after the lock of
+ * the node has been released.
+ */
+interface NodeChangeListener {
+
+	void attributeChanged(NodeId nodeId, UnsignedInteger attributeId, DataValue value);
+
+}
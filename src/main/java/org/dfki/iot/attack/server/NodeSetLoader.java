@@ -0,0 +1,642 @@
+package org.dfki.iot.attack.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedByte;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.UnsignedLong;
+import org.opcfoundation.ua.builtintypes.UnsignedShort;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.AccessLevel;
+import org.opcfoundation.ua.core.Attributes;
+import org.opcfoundation.ua.core.Identifiers;
+import org.opcfoundation.ua.core.NodeClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Builds the address space from a JSON nodeset file of the form
+ *
+ * <pre>
+ * { "nodes": [
+ *     { "nodeId": "Server_ServerStatus_State",
+ *       "NodeClass": "Variable",
+ *       "BrowseName": "State",
+ *       "Value": { "type": "UInt32", "value": 0 } } ] }
+ * </pre>
+ *
+ * The keys of a node are the field names of {@link Attributes}. NodeIds (the
+ * nodeId key and the DataType attribute) are either the name of a field of
+ * {@link Identifiers} or a NodeId string such as "ns=1;i=1000". A string of the
+ * form "${name}" is replaced by the variable with this name. AccessLevel and
+ * UserAccessLevel are a list of {@link AccessLevel} names such as
+ * "CurrentRead,CurrentWrite" or the mask as a number.
+ *
+ * The Value of a variable can be read from a {@link DataSource} instead of the
+ * nodeset: the dataSource key names a public DataSource class with a public
+ * no-argument constructor, for example
+ *
+ * <pre>
+ * { "nodeId": "ns=1;s=Rover.Temperature",
+ *   "dataSource": "org.dfki.iot.attack.server.SimulatedSensorDataSource" }
+ * </pre>
+ *
+ * One instance of each class is created and shared by all nodes bound to it.
+ *
+ * In lazy mode only the boundaries and the nodeId of each node are read while
+ * loading: the node is registered in the {@link NodeStore} with the position
+ * of its JSON object in the file and its attribute table is parsed on first
+ * access. A node that cannot be parsed then is logged and reported as unknown;
+ * with validate set, every node is parsed once while loading as well, so a
+ * broken nodeset is rejected at startup. The file is memory mapped (or copied
+ * to a direct buffer if it is packed in a jar), so it is not kept on the heap.
+ */
+class NodeSetLoader {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodeSetLoader.class);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/** Attribute ids by the field names of {@link Attributes}. */
+	private static final Map<String, UnsignedInteger> ATTRIBUTE_IDS = new HashMap<String, UnsignedInteger>();
+
+	static {
+		for (Field field : Attributes.class.getFields()) {
+			if (Modifier.isStatic(field.getModifiers()) && field.getType() == UnsignedInteger.class) {
+				try {
+					ATTRIBUTE_IDS.put(field.getName(), (UnsignedInteger) field.get(null));
+				} catch (IllegalAccessException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private final Map<String, Object> variables;
+	private final DateTime serverTimestamp;
+	private final boolean lazy;
+	private final boolean validate;
+	private final Executor fetchExecutor;
+	// Shared data source instances by class name
+	private final ConcurrentMap<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
+
+	public NodeSetLoader(Map<String, Object> variables, DateTime serverTimestamp, boolean lazy) {
+		this(variables, serverTimestamp, lazy, false);
+	}
+
+	public NodeSetLoader(Map<String, Object> variables, DateTime serverTimestamp, boolean lazy, boolean validate) {
+		this(variables, serverTimestamp, lazy, validate, null);
+	}
+
+	/**
+	 * @param variables
+	 *            values for the "${name}" placeholders of the nodeset
+	 * @param serverTimestamp
+	 *            server timestamp of the attribute values
+	 * @param lazy
+	 *            build the attribute tables on first access instead of while
+	 *            loading
+	 * @param validate
+	 *            in lazy mode, also parse every node while loading so that an
+	 *            invalid node fails the load
+	 * @param fetchExecutor
+	 *            runs the fetches of the data sources bound in the nodeset or
+	 *            null to fetch on the reading thread
+	 */
+	public NodeSetLoader(Map<String, Object> variables, DateTime serverTimestamp, boolean lazy, boolean validate,
+			Executor fetchExecutor) {
+		this.variables = variables;
+		this.serverTimestamp = serverTimestamp;
+		this.lazy = lazy;
+		this.validate = validate;
+		this.fetchExecutor = fetchExecutor;
+	}
+
+	/**
+	 * Loads a nodeset from the classpath into the store.
+	 *
+	 * @return number of nodes loaded
+	 */
+	public int load(String resourceName, NodeStore store) throws IOException {
+		URL url = NodeSetLoader.class.getClassLoader().getResource(resourceName);
+		if (url == null) {
+			throw new IOException("Unable to find nodeset " + resourceName);
+		}
+		if ("file".equals(url.getProtocol())) {
+			File file;
+			try {
+				file = new File(url.toURI());
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid nodeset location " + url, e);
+			}
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				// The mapping stays valid after the channel is closed
+				return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), store);
+			} finally {
+				channel.close();
+			}
+		}
+		InputStream input = url.openStream();
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				content.write(buffer, 0, read);
+			}
+			ByteBuffer direct = ByteBuffer.allocateDirect(content.size());
+			direct.put(content.toByteArray());
+			direct.flip();
+			return load(direct, store);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Loads a nodeset into the store. In lazy mode the store keeps a reference
+	 * to content, so it must not be modified afterwards.
+	 *
+	 * @return number of nodes loaded
+	 */
+	public int load(byte[] content, NodeStore store) throws IOException {
+		return load(ByteBuffer.wrap(content), store);
+	}
+
+	/**
+	 * Loads a nodeset from position 0 to the limit of the buffer into the
+	 * store. In lazy mode the store keeps a reference to content, so it must
+	 * not be modified afterwards.
+	 *
+	 * @return number of nodes loaded
+	 */
+	public int load(ByteBuffer content, NodeStore store) throws IOException {
+		int count = 0;
+		JsonParser parser = JSON_FACTORY.createParser(new ByteBufferInputStream(content));
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Nodeset must be a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				if (parser.nextToken() != JsonToken.START_ARRAY || !"nodes".equals(fieldName)) {
+					parser.skipChildren();
+					continue;
+				}
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					int offset = (int) parser.getTokenLocation().getByteOffset();
+					String nodeId = null;
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String name = parser.getCurrentName();
+						parser.nextToken();
+						if ("nodeId".equals(name)) {
+							nodeId = String.valueOf(resolve(parser.getText()));
+						} else {
+							parser.skipChildren();
+						}
+					}
+					int length = (int) parser.getCurrentLocation().getByteOffset() - offset;
+					if (nodeId == null) {
+						throw new IOException("Node without nodeId at offset " + offset);
+					}
+					NodeId id = toNodeId(nodeId);
+					if (!lazy) {
+						store.put(id, parseNode(content, offset, length));
+					} else {
+						if (validate) {
+							// Fails the load instead of the first read
+							parseNode(content, offset, length);
+						}
+						store.putLazy(id, new JsonNodeDefinition(content, offset, length));
+					}
+					count++;
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Parses the JSON object of one node from the given range of the nodeset.
+	 */
+	NodeAttributes parseNode(ByteBuffer content, int offset, int length) throws IOException {
+		byte[] node = new byte[length];
+		ByteBuffer range = content.duplicate();
+		range.position(offset);
+		range.get(node);
+		return parseNode(node, 0, length);
+	}
+
+	/**
+	 * Parses the JSON object of one node into its attribute table.
+	 */
+	NodeAttributes parseNode(byte[] content, int offset, int length) throws IOException {
+		NodeAttributes attributes = new NodeAttributes();
+		NodeId nodeId = null;
+		boolean hasNodeClass = false;
+		DataSource dataSource = null;
+		JsonParser parser = JSON_FACTORY.createParser(content, offset, length);
+		try {
+			parser.nextToken();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("nodeId".equals(name)) {
+					nodeId = toNodeId(String.valueOf(resolve(parser.getText())));
+					continue;
+				}
+				if ("dataSource".equals(name)) {
+					dataSource = dataSource(String.valueOf(resolve(parser.getText())));
+					continue;
+				}
+				UnsignedInteger attributeId = ATTRIBUTE_IDS.get(name);
+				if (attributeId == null) {
+					throw new IOException("Unknown attribute " + name + " of node " + nodeId);
+				}
+				if (Attributes.NodeClass.equals(attributeId)) {
+					hasNodeClass = true;
+				}
+				if (token == JsonToken.VALUE_NULL) {
+					attributes.put(attributeId, new DataValue(null, StatusCode.GOOD, null, serverTimestamp));
+				} else if (Attributes.Value.equals(attributeId)) {
+					attributes.put(attributeId, parseValue(parser));
+				} else {
+					attributes.put(attributeId, new DataValue(
+							new Variant(toAttributeValue(name, resolve(parser.getText()))), StatusCode.GOOD, null,
+							serverTimestamp));
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		// Nodes that declare their NodeClass also answer reads of the NodeId
+		// attribute
+		if (hasNodeClass && nodeId != null) {
+			attributes.put(Attributes.NodeId, new DataValue(new Variant(nodeId), StatusCode.GOOD, null,
+					serverTimestamp));
+		}
+		if (dataSource != null) {
+			if (nodeId == null) {
+				throw new IOException("Data source of a node without nodeId");
+			}
+			attributes.setDataSource(dataSource, nodeId, fetchExecutor);
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return the shared instance of the named {@link DataSource} class
+	 */
+	private DataSource dataSource(String className) throws IOException {
+		DataSource dataSource = dataSources.get(className);
+		if (dataSource != null) {
+			return dataSource;
+		}
+		try {
+			Class<?> type = Class.forName(className);
+			if (!DataSource.class.isAssignableFrom(type)) {
+				throw new IOException(className + " is not a DataSource");
+			}
+			dataSource = (DataSource) type.getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Unable to create data source " + className, e);
+		}
+		DataSource previous = dataSources.putIfAbsent(className, dataSource);
+		return previous != null ? previous : dataSource;
+	}
+
+	/**
+	 * Parses a Value attribute of the form { "type": ..., "value": ...,
+	 * "sourceTimestamp": ... }. The source timestamp is optional.
+	 */
+	private DataValue parseValue(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw new IOException("Value must be an object with type and value");
+		}
+		String type = null;
+		Object value = null;
+		DateTime sourceTimestamp = null;
+		List<Object> elements = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("type".equals(name)) {
+				type = parser.getText();
+			} else if ("value".equals(name)) {
+				if (token == JsonToken.START_ARRAY) {
+					elements = new ArrayList<Object>();
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						elements.add(parser.getCurrentToken() == JsonToken.VALUE_NULL ? null
+								: resolve(parser.getText()));
+					}
+				} else if (token != JsonToken.VALUE_NULL) {
+					value = resolve(parser.getText());
+				}
+			} else if ("sourceTimestamp".equals(name)) {
+				sourceTimestamp = (DateTime) convert("DateTime", resolve(parser.getText()));
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (type == null) {
+			throw new IOException("Value without type");
+		}
+		Object converted;
+		if (elements != null) {
+			converted = Array.newInstance(typeClass(type), elements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				Array.set(converted, i, elements.get(i) == null ? null : convert(type, elements.get(i)));
+			}
+		} else {
+			converted = value == null ? null : convert(type, value);
+		}
+		return new DataValue(converted == null ? null : new Variant(converted), StatusCode.GOOD, sourceTimestamp,
+				serverTimestamp);
+	}
+
+	/**
+	 * Converts the JSON text of a non Value attribute to the type the
+	 * attribute is read as.
+	 */
+	private Object toAttributeValue(String attributeName, Object value) throws IOException {
+		String text = String.valueOf(value);
+		try {
+			switch (attributeName) {
+			case "NodeClass":
+				return NodeClass.valueOf(text);
+			case "BrowseName":
+				return new QualifiedName(text);
+			case "DisplayName":
+			case "Description":
+			case "InverseName":
+				return new LocalizedText(text, LocalizedText.NO_LOCALE);
+			case "WriteMask":
+			case "UserWriteMask":
+				return new UnsignedInteger(Long.parseLong(text));
+			case "EventNotifier":
+				return new UnsignedByte(Integer.parseInt(text));
+			case "DataType":
+				return toNodeId(text);
+			case "ValueRank":
+				return Integer.valueOf(text);
+			case "AccessLevel":
+			case "UserAccessLevel":
+				return toAccessLevel(text);
+			case "MinimumSamplingInterval":
+				return Double.valueOf(text);
+			case "IsAbstract":
+			case "Symmetric":
+			case "ContainsNoLoops":
+			case "Historizing":
+			case "Executable":
+			case "UserExecutable":
+				return Boolean.valueOf(text);
+			default:
+				throw new IOException("Attribute " + attributeName + " is not supported in nodesets");
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid " + attributeName + " value " + text, e);
+		}
+	}
+
+	/**
+	 * @return the AccessLevel mask for a number or a comma separated list of
+	 *         {@link AccessLevel} names such as "CurrentRead,CurrentWrite"
+	 */
+	private static UnsignedByte toAccessLevel(String text) {
+		if (!text.isEmpty() && Character.isDigit(text.charAt(0))) {
+			return new UnsignedByte(Integer.parseInt(text));
+		}
+		List<AccessLevel> levels = new ArrayList<AccessLevel>();
+		for (String name : text.split(",")) {
+			if (!name.trim().isEmpty()) {
+				levels.add(AccessLevel.valueOf(name.trim()));
+			}
+		}
+		return AccessLevel.getMask(levels);
+	}
+
+	/**
+	 * @return the Java class used for values of the given builtin type name
+	 */
+	private static Class<?> typeClass(String type) throws IOException {
+		switch (type) {
+		case "Boolean":
+			return Boolean.class;
+		case "SByte":
+			return Byte.class;
+		case "Byte":
+			return UnsignedByte.class;
+		case "Int16":
+			return Short.class;
+		case "UInt16":
+			return UnsignedShort.class;
+		case "Int32":
+			return Integer.class;
+		case "UInt32":
+			return UnsignedInteger.class;
+		case "Int64":
+			return Long.class;
+		case "UInt64":
+			return UnsignedLong.class;
+		case "Float":
+			return Float.class;
+		case "Double":
+			return Double.class;
+		case "String":
+			return String.class;
+		case "DateTime":
+			return DateTime.class;
+		case "NodeId":
+			return NodeId.class;
+		case "QualifiedName":
+			return QualifiedName.class;
+		case "LocalizedText":
+			return LocalizedText.class;
+		default:
+			throw new IOException("Unsupported value type " + type);
+		}
+	}
+
+	/**
+	 * Converts a resolved scalar to the Java class of the builtin type.
+	 * Variables that already have this class are used as they are.
+	 */
+	private static Object convert(String type, Object value) throws IOException {
+		Class<?> typeClass = typeClass(type);
+		if (typeClass.isInstance(value)) {
+			return value;
+		}
+		String text = String.valueOf(value);
+		try {
+			switch (type) {
+			case "Boolean":
+				return Boolean.valueOf(text);
+			case "SByte":
+				return Byte.valueOf(text);
+			case "Byte":
+				return new UnsignedByte(Integer.parseInt(text));
+			case "Int16":
+				return Short.valueOf(text);
+			case "UInt16":
+				return new UnsignedShort(Integer.parseInt(text));
+			case "Int32":
+				return Integer.valueOf(text);
+			case "UInt32":
+				return new UnsignedInteger(Long.parseLong(text));
+			case "Int64":
+				return Long.valueOf(text);
+			case "UInt64":
+				return new UnsignedLong(Long.parseLong(text));
+			case "Float":
+				return Float.valueOf(text);
+			case "Double":
+				return Double.valueOf(text);
+			case "DateTime":
+				return DateTime.parseDateTime(text);
+			case "NodeId":
+				return toNodeId(text);
+			case "QualifiedName":
+				return new QualifiedName(text);
+			case "LocalizedText":
+				return new LocalizedText(text, LocalizedText.NO_LOCALE);
+			default:
+				return text;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid " + type + " value " + text, e);
+		}
+	}
+
+	/**
+	 * @return the variable for a "${name}" placeholder, text otherwise
+	 */
+	private Object resolve(String text) throws IOException {
+		if (text != null && text.startsWith("${") && text.endsWith("}")) {
+			String name = text.substring(2, text.length() - 1);
+			if (!variables.containsKey(name)) {
+				throw new IOException("Undefined nodeset variable " + name);
+			}
+			return variables.get(name);
+		}
+		return text;
+	}
+
+	/**
+	 * @return the NodeId for the name of a field of {@link Identifiers} or for
+	 *         a NodeId string such as "ns=1;i=1000"
+	 */
+	static NodeId toNodeId(String text) throws IOException {
+		if (text.indexOf('=') >= 0) {
+			try {
+				return NodeId.parseNodeId(text);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid NodeId " + text, e);
+			}
+		}
+		try {
+			return (NodeId) Identifiers.class.getField(text).get(null);
+		} catch (NoSuchFieldException e) {
+			throw new IOException("Unknown identifier " + text, e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Unknown identifier " + text, e);
+		}
+	}
+
+	/**
+	 * Node whose attributes are parsed from its position in the nodeset on
+	 * first access.
+	 */
+	private class JsonNodeDefinition implements NodeStore.NodeDefinition {
+
+		private final ByteBuffer content;
+		private final int offset;
+		private final int length;
+
+		JsonNodeDefinition(ByteBuffer content, int offset, int length) {
+			this.content = content;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public NodeAttributes materialize() {
+			try {
+				return parseNode(content, offset, length);
+			} catch (IOException e) {
+				// The node is reported as unknown instead of failing the
+				// request
+				logger.error("Invalid definition of node at offset " + offset, e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Reads a ByteBuffer from position 0 to its limit without changing it.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer content) {
+			buffer = content.duplicate();
+			buffer.position(0);
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package org.dfki.iot.attack.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+
+/**
+ * Address space of the server. Maps each NodeId to its
+ * {@link NodeAttributes}. Lookups and updates are safe to call from any
+ * service handler thread.
+ *
+ * Nodes can also be registered lazily with a {@link NodeDefinition}. The
+ * attribute table of such a node is only built on the first lookup, so the
+ * heap used by the store grows with the nodes clients actually access.
+ *
+ * If the store is created with an {@link OffHeapValueStore}, primitive Value
+ * attributes of the added nodes are kept off heap.
+ */
+class NodeStore {
+
+	/**
+	 * Builds the attribute table of a lazily registered node.
+	 */
+	interface NodeDefinition {
+		/**
+		 * @return the attribute table or null if it cannot be built, the node
+		 *         is unknown then
+		 */
+		NodeAttributes materialize();
+	}
+
+	private final ConcurrentMap<NodeId, NodeAttributes> nodes;
+	private final ConcurrentMap<NodeId, NodeDefinition> definitions;
+	private final OffHeapValueStore valueStore;
+
+	public NodeStore() {
+		this(64);
+	}
+
+	/**
+	 * @param expectedNodes
+	 *            number of nodes the store is sized for initially
+	 */
+	public NodeStore(int expectedNodes) {
+		this(expectedNodes, null);
+	}
+
+	/**
+	 * @param expectedNodes
+	 *            number of nodes the store is sized for initially
+	 * @param valueStore
+	 *            store for primitive Value attributes or null to keep all
+	 *            values on the heap
+	 */
+	public NodeStore(int expectedNodes, OffHeapValueStore valueStore) {
+		nodes = new ConcurrentHashMap<NodeId, NodeAttributes>(expectedNodes);
+		definitions = new ConcurrentHashMap<NodeId, NodeDefinition>(expectedNodes);
+		this.valueStore = valueStore;
+	}
+
+	/**
+	 * @return the attributes of the node or null if the node is unknown
+	 */
+	public NodeAttributes get(NodeId nodeId) {
+		if (nodeId == null) {
+			return null;
+		}
+		NodeAttributes attributes = nodes.get(nodeId);
+		if (attributes != null || definitions.isEmpty()) {
+			return attributes;
+		}
+		NodeDefinition definition = definitions.get(nodeId);
+		if (definition == null) {
+			return null;
+		}
+		// Two threads may build the same node concurrently, only the first
+		// table is published and returned to both of them
+		attributes = definition.materialize();
+		if (attributes == null) {
+			return null;
+		}
+		moveValueOffHeap(attributes);
+		NodeAttributes existing = nodes.putIfAbsent(nodeId, attributes);
+		definitions.remove(nodeId, definition);
+		if (existing != null) {
+			attributes.releaseValue();
+			return existing;
+		}
+		return attributes;
+	}
+
+	/**
+	 * Adds a node or replaces an existing node with the same id.
+	 */
+	public void put(NodeId nodeId, NodeAttributes attributes) {
+		moveValueOffHeap(attributes);
+		NodeAttributes replaced = nodes.put(nodeId, attributes);
+		if (replaced != attributes) {
+			release(replaced);
+		}
+		definitions.remove(nodeId);
+	}
+
+	/**
+	 * Registers a node whose attribute table is built on first access.
+	 * Replaces an existing node with the same id.
+	 */
+	public void putLazy(NodeId nodeId, NodeDefinition definition) {
+		definitions.put(nodeId, definition);
+		release(nodes.remove(nodeId));
+	}
+
+	/**
+	 * @return the removed attributes or null if the node was unknown or not
+	 *         materialized yet
+	 */
+	public NodeAttributes remove(NodeId nodeId) {
+		definitions.remove(nodeId);
+		NodeAttributes removed = nodes.remove(nodeId);
+		release(removed);
+		return removed;
+	}
+
+	public boolean contains(NodeId nodeId) {
+		return nodeId != null && (nodes.containsKey(nodeId) || definitions.containsKey(nodeId));
+	}
+
+	/**
+	 * @return number of nodes in the store, including nodes that are not
+	 *         materialized yet
+	 */
+	public int size() {
+		return nodes.size() + definitions.size();
+	}
+
+	/**
+	 * @return number of nodes whose attribute table has been built
+	 */
+	public int materializedSize() {
+		return nodes.size();
+	}
+
+	private void moveValueOffHeap(NodeAttributes attributes) {
+		if (valueStore != null && attributes != null) {
+			attributes.moveValueOffHeap(valueStore);
+		}
+	}
+
+	private void release(NodeAttributes attributes) {
+		if (attributes != null) {
+			attributes.releaseValue();
+		}
+	}
+
+}
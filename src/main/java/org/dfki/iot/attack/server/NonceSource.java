@@ -0,0 +1,101 @@
+package org.dfki.iot.attack.server;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+
+/**
+ * Source of random bytes for authentication tokens and nonces, backed by
+ * {@link SecureRandom}.
+ *
+ * A background thread fills blocks of random bytes ahead of time. Every
+ * thread takes a whole block from the queue and hands out slices of it until
+ * it is used up, so callers neither share a SecureRandom nor a lock. Bytes are
+ * never handed out twice. If the background thread cannot keep up, the
+ * calling thread fills the block itself.
+ */
+class NonceSource {
+
+	private final int blockSize;
+	private final BlockingQueue<byte[]> blocks;
+	private final SecureRandom random = new SecureRandom();
+
+	private final ThreadLocal<Slice> current = new ThreadLocal<Slice>() {
+		@Override
+		protected Slice initialValue() {
+			return new Slice();
+		}
+	};
+
+	private static class Slice {
+		byte[] block;
+		int position;
+	}
+
+	/**
+	 * @param blockSize
+	 *            size of one block in bytes
+	 * @param prefetch
+	 *            number of blocks filled ahead of time
+	 */
+	public NonceSource(int blockSize, int prefetch) {
+		this.blockSize = Math.max(32, blockSize);
+		this.blocks = new ArrayBlockingQueue<byte[]>(Math.max(1, prefetch));
+		Thread filler = new Thread(new Runnable() {
+			public void run() {
+				// The filler has its own generator, so it never contends with
+				// callers that fill blocks themselves
+				SecureRandom fillerRandom = new SecureRandom();
+				try {
+					for (;;) {
+						byte[] block = new byte[NonceSource.this.blockSize];
+						fillerRandom.nextBytes(block);
+						blocks.put(block);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "nonce-source");
+		filler.setDaemon(true);
+		filler.start();
+	}
+
+	/**
+	 * @return length random bytes
+	 */
+	public byte[] nextBytes(int length) {
+		byte[] bytes = new byte[length];
+		if (length > blockSize) {
+			random.nextBytes(bytes);
+			return bytes;
+		}
+		Slice slice = current.get();
+		if (slice.block == null || slice.position + length > slice.block.length) {
+			slice.block = nextBlock();
+			slice.position = 0;
+		}
+		System.arraycopy(slice.block, slice.position, bytes, 0, length);
+		// Bytes that have been handed out are not kept
+		Arrays.fill(slice.block, slice.position, slice.position + length, (byte) 0);
+		slice.position += length;
+		return bytes;
+	}
+
+	public ByteString nextByteString(int length) {
+		return ByteString.valueOf(nextBytes(length));
+	}
+
+	private byte[] nextBlock() {
+		byte[] block = blocks.poll();
+		if (block == null) {
+			block = new byte[blockSize];
+			random.nextBytes(block);
+		}
+		return block;
+	}
+
+}
@@ -0,0 +1,503 @@
+package org.dfki.iot.attack.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedByte;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.UnsignedShort;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+
+/**
+ * Keeps the Value attribute of variables with a primitive scalar value
+ * (Boolean, SByte, Byte, Int16, UInt16, Int32, UInt32, Int64, Float, Double
+ * and DateTime) outside of the Java heap.
+ *
+ * Every value occupies a fixed size slot in a direct ByteBuffer:
+ *
+ * <pre>
+ * offset  0  int   builtin type id of the value, 0 for a null value
+ * offset  4  int   status code bits
+ * offset  8  int   flags (source / server timestamp present)
+ * offset 12  int   generation of the slot
+ * offset 16  long  value bits
+ * offset 24  long  source timestamp (100 ns ticks)
+ * offset 32  long  server timestamp (100 ns ticks)
+ * </pre>
+ *
+ * The buffers are allocated in segments as slots are used. Slots are guarded
+ * by striped {@link StampedLock}s: readers read optimistically without
+ * blocking and retry if a writer changed the slot meanwhile. Picoseconds of
+ * the timestamps are not stored.
+ *
+ * A slot is addressed by a handle that holds the slot and its generation.
+ * Releasing a slot increments its generation, so a reader or writer that
+ * still holds the handle of a released slot gets null or false instead of
+ * the value of the node that uses the slot next.
+ */
+class OffHeapValueStore {
+
+	private static final int SLOT_SIZE = 40;
+	private static final int SLOTS_PER_SEGMENT = 1 << 16;
+	private static final int LOCK_STRIPES = 256;
+
+	private static final int TYPE = 0;
+	private static final int STATUS = 4;
+	private static final int FLAGS = 8;
+	private static final int GENERATION = 12;
+	private static final int VALUE = 16;
+	private static final int SOURCE_TIMESTAMP = 24;
+	private static final int SERVER_TIMESTAMP = 32;
+
+	// Fields of a slot as read by readFields
+	private static final int FIELD_TYPE = 0;
+	private static final int FIELD_STATUS = 1;
+	private static final int FIELD_FLAGS = 2;
+	private static final int FIELD_VALUE = 3;
+	private static final int FIELD_SOURCE_TIMESTAMP = 4;
+	private static final int FIELD_SERVER_TIMESTAMP = 5;
+	private static final int FIELD_COUNT = 6;
+
+	// DateTime ticks are 100 ns
+	private static final long TICKS_PER_MILLISECOND = 10000;
+
+	private static final int HAS_SOURCE_TIMESTAMP = 1;
+	private static final int HAS_SERVER_TIMESTAMP = 2;
+
+	// OPC UA builtin type ids
+	private static final int NULL = 0;
+	private static final int BOOLEAN = 1;
+	private static final int SBYTE = 2;
+	private static final int BYTE = 3;
+	private static final int INT16 = 4;
+	private static final int UINT16 = 5;
+	private static final int INT32 = 6;
+	private static final int UINT32 = 7;
+	private static final int INT64 = 8;
+	private static final int FLOAT = 10;
+	private static final int DOUBLE = 11;
+	private static final int DATETIME = 13;
+
+	private final int capacity;
+	private final AtomicReferenceArray<ByteBuffer> segments;
+	private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+	private final AtomicInteger nextSlot = new AtomicInteger();
+	private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<Integer>();
+
+	/**
+	 * @param capacity
+	 *            maximum number of values kept off heap
+	 */
+	public OffHeapValueStore(int capacity) {
+		this.capacity = capacity;
+		this.segments = new AtomicReferenceArray<ByteBuffer>((capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new StampedLock();
+		}
+	}
+
+	/**
+	 * @return true if the value can be kept in this store
+	 */
+	public static boolean isSupported(DataValue value) {
+		if (value == null || value.getSourcePicoseconds() != null || value.getServerPicoseconds() != null) {
+			return false;
+		}
+		return typeOf(value.getValue()) >= 0;
+	}
+
+	/**
+	 * Moves a value into a free slot.
+	 *
+	 * @return the handle of the slot or -1 if the value is not supported or
+	 *         the store is full
+	 */
+	public long allocate(DataValue value) {
+		if (!isSupported(value)) {
+			return -1;
+		}
+		Integer free = freeSlots.poll();
+		int slot;
+		if (free != null) {
+			slot = free.intValue();
+		} else {
+			slot = nextSlot.getAndIncrement();
+			if (slot >= capacity) {
+				nextSlot.decrementAndGet();
+				return -1;
+			}
+		}
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		StampedLock lock = lock(slot);
+		long stamp = lock.writeLock();
+		int generation;
+		try {
+			generation = segment.getInt(offset + GENERATION);
+			storeValue(segment, offset, value);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return handle(slot, generation);
+	}
+
+	/**
+	 * Returns a slot that is no longer used by its node. The handle is
+	 * invalid afterwards.
+	 *
+	 * @return false if the slot has already been released
+	 */
+	public boolean release(long handle) {
+		int slot = slotOf(handle);
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		StampedLock lock = lock(slot);
+		long stamp = lock.writeLock();
+		try {
+			if (segment.getInt(offset + GENERATION) != generationOf(handle)) {
+				return false;
+			}
+			segment.putInt(offset + GENERATION, (generationOf(handle) + 1) & Integer.MAX_VALUE);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		freeSlots.offer(Integer.valueOf(slot));
+		return true;
+	}
+
+	/**
+	 * Replaces the value in a slot.
+	 *
+	 * @return false if the value is not supported or the slot has been
+	 *         released, the slot is unchanged then
+	 */
+	public boolean write(long handle, DataValue value) {
+		if (!isSupported(value)) {
+			return false;
+		}
+		int slot = slotOf(handle);
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		StampedLock lock = lock(slot);
+		long stamp = lock.writeLock();
+		try {
+			if (segment.getInt(offset + GENERATION) != generationOf(handle)) {
+				return false;
+			}
+			storeValue(segment, offset, value);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the value in a slot and sets its server timestamp. Status code
+	 * and source timestamp of the slot are kept, as for an on heap write (see
+	 * {@link ValueSnapshot#withValue(DataValue, Variant, DateTime)}).
+	 *
+	 * @return false if the value is not supported or the slot has been
+	 *         released, the slot is unchanged then
+	 */
+	public boolean writeValue(long handle, Variant value, DateTime serverTimestamp) {
+		int type = typeOf(value);
+		if (type < 0) {
+			return false;
+		}
+		long bits = type == NULL ? 0 : toBits(type, value.getValue());
+		int slot = slotOf(handle);
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		StampedLock lock = lock(slot);
+		long stamp = lock.writeLock();
+		try {
+			if (segment.getInt(offset + GENERATION) != generationOf(handle)) {
+				return false;
+			}
+			segment.putInt(offset + TYPE, type);
+			segment.putLong(offset + VALUE, bits);
+			int flags = segment.getInt(offset + FLAGS);
+			if (serverTimestamp != null) {
+				segment.putLong(offset + SERVER_TIMESTAMP, serverTimestamp.getValue());
+				flags |= HAS_SERVER_TIMESTAMP;
+			} else {
+				flags &= ~HAS_SERVER_TIMESTAMP;
+			}
+			segment.putInt(offset + FLAGS, flags);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes the value of a slot. The returned DataValue is a new object
+	 * that is owned by the caller.
+	 *
+	 * @return the value or null if the slot has been released
+	 */
+	public DataValue read(long handle) {
+		long[] fields = new long[FIELD_COUNT];
+		if (!readFields(handle, fields)) {
+			return null;
+		}
+		int flags = (int) fields[FIELD_FLAGS];
+		return new DataValue(variant((int) fields[FIELD_TYPE], fields[FIELD_VALUE]),
+				status((int) fields[FIELD_STATUS]),
+				(flags & HAS_SOURCE_TIMESTAMP) != 0 ? new DateTime(fields[FIELD_SOURCE_TIMESTAMP]) : null,
+				(flags & HAS_SERVER_TIMESTAMP) != 0 ? new DateTime(fields[FIELD_SERVER_TIMESTAMP]) : null);
+	}
+
+	/**
+	 * Decodes the value of a slot as it has to be sent for a read request,
+	 * with the same timestamps as
+	 * {@link ValueSnapshot#view(DataValue, double, TimestampsToReturn, DateTime)}.
+	 * Only the DataValue and Variant of the response are created; timestamps
+	 * that are not returned are not decoded and a refreshed timestamp is the
+	 * given time itself.
+	 *
+	 * @return the value or null if the slot has been released
+	 */
+	public DataValue read(long handle, double maxAge, TimestampsToReturn timestampsToReturn, DateTime now) {
+		long[] fields = new long[FIELD_COUNT];
+		if (!readFields(handle, fields)) {
+			return null;
+		}
+		int flags = (int) fields[FIELD_FLAGS];
+		long serverTicks = fields[FIELD_SERVER_TIMESTAMP];
+		// A value older than maxAge is refreshed, see ValueSnapshot.view
+		boolean refresh = (flags & HAS_SERVER_TIMESTAMP) == 0
+				|| maxAge - (now.getValue() - serverTicks) / TICKS_PER_MILLISECOND <= 0;
+		boolean returnServer = true;
+		boolean sourceIsNow = false;
+		if (timestampsToReturn != null) {
+			switch (timestampsToReturn) {
+			case Source:
+				sourceIsNow = true;
+				returnServer = false;
+				break;
+			case Both:
+				sourceIsNow = true;
+				break;
+			case Neither:
+				returnServer = false;
+				break;
+			default:
+				// case Server
+				break;
+			}
+		}
+		DateTime sourceTimestamp = null;
+		DateTime serverTimestamp = null;
+		if (sourceIsNow) {
+			sourceTimestamp = now;
+		} else if ((flags & HAS_SOURCE_TIMESTAMP) != 0) {
+			sourceTimestamp = new DateTime(fields[FIELD_SOURCE_TIMESTAMP]);
+		}
+		if (returnServer) {
+			serverTimestamp = refresh ? now : new DateTime(serverTicks);
+		}
+		return new DataValue(variant((int) fields[FIELD_TYPE], fields[FIELD_VALUE]),
+				status((int) fields[FIELD_STATUS]), sourceTimestamp, serverTimestamp);
+	}
+
+	/**
+	 * Reads the fields of a slot consistently.
+	 *
+	 * @return false if the slot has been released
+	 */
+	private boolean readFields(long handle, long[] fields) {
+		int slot = slotOf(handle);
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		StampedLock lock = lock(slot);
+
+		long stamp = lock.tryOptimisticRead();
+		int generation = segment.getInt(offset + GENERATION);
+		loadFields(segment, offset, fields);
+		if (!lock.validate(stamp)) {
+			// A writer changed the slot while it was read
+			stamp = lock.readLock();
+			try {
+				generation = segment.getInt(offset + GENERATION);
+				loadFields(segment, offset, fields);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return generation == generationOf(handle);
+	}
+
+	private static void loadFields(ByteBuffer segment, int offset, long[] fields) {
+		fields[FIELD_TYPE] = segment.getInt(offset + TYPE);
+		fields[FIELD_STATUS] = segment.getInt(offset + STATUS);
+		fields[FIELD_FLAGS] = segment.getInt(offset + FLAGS);
+		fields[FIELD_VALUE] = segment.getLong(offset + VALUE);
+		fields[FIELD_SOURCE_TIMESTAMP] = segment.getLong(offset + SOURCE_TIMESTAMP);
+		fields[FIELD_SERVER_TIMESTAMP] = segment.getLong(offset + SERVER_TIMESTAMP);
+	}
+
+	private static Variant variant(int type, long bits) {
+		return type == NULL ? null : new Variant(fromBits(type, bits));
+	}
+
+	private static StatusCode status(int bits) {
+		return bits == 0 ? StatusCode.GOOD : StatusCode.getFromBits(bits);
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of slots in use
+	 */
+	public int size() {
+		return Math.min(nextSlot.get(), capacity) - freeSlots.size();
+	}
+
+	private static void storeValue(ByteBuffer segment, int offset, DataValue value) {
+		Variant variant = value.getValue();
+		int type = typeOf(variant);
+		long bits = type == NULL ? 0 : toBits(type, variant.getValue());
+		StatusCode statusCode = value.getStatusCode();
+		int status = statusCode == null ? 0 : statusCode.getValueAsIntBits();
+		DateTime sourceTimestamp = value.getSourceTimestamp();
+		DateTime serverTimestamp = value.getServerTimestamp();
+		int flags = 0;
+		long sourceTicks = 0;
+		long serverTicks = 0;
+		if (sourceTimestamp != null) {
+			flags |= HAS_SOURCE_TIMESTAMP;
+			sourceTicks = sourceTimestamp.getValue();
+		}
+		if (serverTimestamp != null) {
+			flags |= HAS_SERVER_TIMESTAMP;
+			serverTicks = serverTimestamp.getValue();
+		}
+		segment.putInt(offset + TYPE, type);
+		segment.putInt(offset + STATUS, status);
+		segment.putInt(offset + FLAGS, flags);
+		segment.putLong(offset + VALUE, bits);
+		segment.putLong(offset + SOURCE_TIMESTAMP, sourceTicks);
+		segment.putLong(offset + SERVER_TIMESTAMP, serverTicks);
+	}
+
+	private static long handle(int slot, int generation) {
+		return ((long) generation << 32) | slot;
+	}
+
+	private static int slotOf(long handle) {
+		return (int) handle;
+	}
+
+	private static int generationOf(long handle) {
+		return (int) (handle >>> 32);
+	}
+
+	private ByteBuffer segment(int slot) {
+		int index = slot / SLOTS_PER_SEGMENT;
+		ByteBuffer segment = segments.get(index);
+		if (segment == null) {
+			segments.compareAndSet(index, null, ByteBuffer.allocateDirect(SLOTS_PER_SEGMENT * SLOT_SIZE));
+			segment = segments.get(index);
+		}
+		return segment;
+	}
+
+	private static int offset(int slot) {
+		return (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+	}
+
+	private StampedLock lock(int slot) {
+		return locks[slot & (LOCK_STRIPES - 1)];
+	}
+
+	/**
+	 * @return the builtin type id of a scalar value, NULL for an empty value
+	 *         and -1 if the value cannot be stored
+	 */
+	private static int typeOf(Variant variant) {
+		if (variant == null || variant.getValue() == null) {
+			return NULL;
+		}
+		Object value = variant.getValue();
+		if (value instanceof Boolean) {
+			return BOOLEAN;
+		} else if (value instanceof Byte) {
+			return SBYTE;
+		} else if (value instanceof UnsignedByte) {
+			return BYTE;
+		} else if (value instanceof Short) {
+			return INT16;
+		} else if (value instanceof UnsignedShort) {
+			return UINT16;
+		} else if (value instanceof Integer) {
+			return INT32;
+		} else if (value instanceof UnsignedInteger) {
+			return UINT32;
+		} else if (value instanceof Long) {
+			return INT64;
+		} else if (value instanceof Float) {
+			return FLOAT;
+		} else if (value instanceof Double) {
+			return DOUBLE;
+		} else if (value instanceof DateTime) {
+			return DATETIME;
+		}
+		return -1;
+	}
+
+	private static long toBits(int type, Object value) {
+		switch (type) {
+		case BOOLEAN:
+			return ((Boolean) value).booleanValue() ? 1 : 0;
+		case FLOAT:
+			return Float.floatToRawIntBits(((Float) value).floatValue());
+		case DOUBLE:
+			return Double.doubleToRawLongBits(((Double) value).doubleValue());
+		case DATETIME:
+			return ((DateTime) value).getValue();
+		default:
+			return ((Number) value).longValue();
+		}
+	}
+
+	private static Object fromBits(int type, long bits) {
+		switch (type) {
+		case BOOLEAN:
+			return Boolean.valueOf(bits != 0);
+		case SBYTE:
+			return Byte.valueOf((byte) bits);
+		case BYTE:
+			return new UnsignedByte((int) bits);
+		case INT16:
+			return Short.valueOf((short) bits);
+		case UINT16:
+			return new UnsignedShort((int) bits);
+		case INT32:
+			return Integer.valueOf((int) bits);
+		case UINT32:
+			return new UnsignedInteger(bits);
+		case INT64:
+			return Long.valueOf(bits);
+		case FLOAT:
+			return Float.valueOf(Float.intBitsToFloat((int) bits));
+		case DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(bits));
+		case DATETIME:
+			return new DateTime(bits);
+		default:
+			throw new IllegalStateException("Unknown type id " + type);
+		}
+	}
+
+}
@@ -0,0 +1,498 @@
+package org.dfki.iot.attack.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.core.AnonymousIdentityToken;
+import org.opcfoundation.ua.core.UserNameIdentityToken;
+import org.opcfoundation.ua.encoding.IEncodeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sessions shared by several server processes through a common directory, so
+ * that a session created and activated on one process is valid on all of
+ * them. This is a stand-in for a replicated store: every session is one
+ * properties file, written atomically, and each process keeps the sessions it
+ * has seen in memory.
+ *
+ * A lookup checks the modification time of the file, at most once per refresh
+ * interval, and loads it again when another process has changed it; a missing
+ * file means the session has been closed. Unknown tokens are remembered for
+ * the refresh interval as well, so repeated requests with an invalid token do
+ * not open a file each time. Deadlines are written only when they have moved
+ * by a quarter of the session timeout, so requests do not write a file each
+ * time. A process may therefore have moved the deadline by up to a quarter of
+ * the timeout without writing it: a session expires only a quarter of the
+ * timeout after the deadline in its file. Files of sessions that have expired
+ * this way, e.g. of a crashed process, are deleted by a background sweep. The
+ * user identity is replicated as its token type, policy id and user name.
+ *
+ * Only the process that created a session deletes its file when a client uses
+ * the session in an invalid way, see {@link #discard(Session)}.
+ */
+class ReplicatedSessionStore implements SessionStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicatedSessionStore.class);
+
+	private static final String SUFFIX = ".session";
+
+	/** Unknown tokens remembered at most, the cache is cleared when full. */
+	private static final int MAX_UNKNOWN_TOKENS = 10000;
+
+	private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * A session known to this process and the file state it matches.
+	 */
+	private static class Entry {
+		final Session session;
+		// Created by this process
+		final boolean owner;
+		FileTime modified;
+		Session.State writtenState;
+		IEncodeable writtenIdentity;
+		long writtenDeadline;
+		// System.nanoTime() of the last check of the file
+		volatile long checked;
+
+		Entry(Session session, boolean owner) {
+			this.session = session;
+			this.owner = owner;
+		}
+	}
+
+	private final Path directory;
+	private final long refreshNanos;
+	private final ScheduledExecutorService sweeper;
+	private final ConcurrentHashMap<NodeId, Entry> sessions = new ConcurrentHashMap<NodeId, Entry>();
+	// Tokens without a session file and the System.nanoTime() until they are
+	// considered unknown
+	private final ConcurrentHashMap<NodeId, Long> unknownTokens = new ConcurrentHashMap<NodeId, Long>();
+	private volatile SessionListener listener;
+
+	/**
+	 * @param refreshMillis
+	 *            time a session file is not checked again for changes by
+	 *            other processes
+	 * @param sweepMillis
+	 *            time between two sweeps for expired session files
+	 */
+	public ReplicatedSessionStore(Path directory, long refreshMillis, long sweepMillis) throws IOException {
+		this.directory = directory;
+		this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshMillis));
+		Files.createDirectories(directory);
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "session-file-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long interval = Math.max(1000, sweepMillis);
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sweep(System.currentTimeMillis());
+				} catch (RuntimeException e) {
+					logger.error("Session file sweep failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void setListener(SessionListener listener) {
+		this.listener = listener;
+	}
+
+	public Session put(Session session) {
+		Entry entry = new Entry(session, true);
+		synchronized (entry) {
+			write(entry);
+		}
+		unknownTokens.remove(session.getAuthenticationToken());
+		Entry replaced = sessions.put(session.getAuthenticationToken(), entry);
+		return replaced == null ? null : replaced.session;
+	}
+
+	public Session get(NodeId authenticationToken) {
+		Entry entry = sessions.get(authenticationToken);
+		if (entry != null) {
+			return refresh(entry, false) ? entry.session : null;
+		}
+		Long unknownUntil = unknownTokens.get(authenticationToken);
+		if (unknownUntil != null) {
+			if (unknownUntil.longValue() - System.nanoTime() > 0) {
+				return null;
+			}
+			unknownTokens.remove(authenticationToken, unknownUntil);
+		}
+		// Created by another process
+		Path file = file(authenticationToken);
+		Entry loaded = read(file, authenticationToken);
+		if (loaded == null) {
+			setUnknown(authenticationToken);
+			return null;
+		}
+		entry = sessions.putIfAbsent(authenticationToken, loaded);
+		if (entry != null) {
+			return entry.session;
+		}
+		SessionListener current = listener;
+		if (current != null) {
+			current.sessionCreated(loaded.session);
+		}
+		return loaded.session;
+	}
+
+	public Session remove(NodeId authenticationToken) {
+		delete(file(authenticationToken));
+		Entry entry = sessions.remove(authenticationToken);
+		return entry == null ? null : entry.session;
+	}
+
+	public boolean remove(Session session) {
+		Entry entry = sessions.get(session.getAuthenticationToken());
+		if (entry == null || entry.session != session
+				|| !sessions.remove(session.getAuthenticationToken(), entry)) {
+			return false;
+		}
+		delete(file(session.getAuthenticationToken()));
+		return true;
+	}
+
+	public boolean expire(Session session, long now) {
+		Entry entry = sessions.get(session.getAuthenticationToken());
+		if (entry == null || entry.session != session || !refresh(entry, true)) {
+			return false;
+		}
+		long writtenDeadline;
+		synchronized (entry) {
+			writtenDeadline = entry.writtenDeadline;
+		}
+		// Another process may have moved the deadline by less than a quarter
+		// of the timeout without writing it
+		if (session.isExpired(now) && now >= writtenDeadline + session.getTimeout() / 4) {
+			return remove(session);
+		}
+		return false;
+	}
+
+	public boolean discard(Session session) {
+		Entry entry = sessions.get(session.getAuthenticationToken());
+		if (entry == null || !entry.owner) {
+			return false;
+		}
+		return remove(session);
+	}
+
+	public void update(Session session) {
+		Entry entry = sessions.get(session.getAuthenticationToken());
+		if (entry == null || entry.session != session) {
+			return;
+		}
+		synchronized (entry) {
+			if (entry.writtenState != session.getState() || entry.writtenIdentity != session.getIdentity()
+					|| session.getDeadline() - entry.writtenDeadline >= session.getTimeout() / 4) {
+				write(entry);
+			}
+		}
+	}
+
+	public void refresh(Session session) {
+		Entry entry = sessions.get(session.getAuthenticationToken());
+		if (entry != null && entry.session == session) {
+			refresh(entry, true);
+		}
+	}
+
+	public Collection<Session> getSessions() {
+		List<Session> result = new ArrayList<Session>(sessions.size());
+		for (Entry entry : sessions.values()) {
+			result.add(entry.session);
+		}
+		return Collections.unmodifiableCollection(result);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public void close() {
+		// The files stay for the other processes
+		sweeper.shutdown();
+		sessions.clear();
+	}
+
+	/**
+	 * Deletes the files of sessions that have expired including the grace
+	 * for deadlines that have not been written, also of sessions that no
+	 * process holds any more.
+	 */
+	void sweep(long now) {
+		try {
+			DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX);
+			try {
+				for (Path file : files) {
+					Properties properties = readProperties(file);
+					if (properties == null) {
+						continue;
+					}
+					try {
+						long deadline = Long.parseLong(properties.getProperty("deadline"));
+						long timeout = Long.parseLong(properties.getProperty("timeout"));
+						if (now >= deadline + timeout / 4) {
+							delete(file);
+							logger.info("Deleted expired session file {}", file);
+						}
+					} catch (RuntimeException e) {
+						logger.warn("Ignoring invalid session file {}: {}", file, e.toString());
+					}
+				}
+			} finally {
+				files.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to sweep session directory {}: {}", directory, e.toString());
+		}
+	}
+
+	/**
+	 * Loads the file of the entry if another process has changed it.
+	 *
+	 * @param force
+	 *            check the file even if it has been checked within the
+	 *            refresh interval
+	 * @return false if the session has been removed by another process
+	 */
+	private boolean refresh(Entry entry, boolean force) {
+		long now = System.nanoTime();
+		if (!force && now - entry.checked < refreshNanos) {
+			return true;
+		}
+		entry.checked = now;
+		Session session = entry.session;
+		Path file = file(session.getAuthenticationToken());
+		FileTime modified = modified(file);
+		if (modified == null) {
+			setUnknown(session.getAuthenticationToken());
+			if (sessions.remove(session.getAuthenticationToken(), entry)) {
+				SessionListener current = listener;
+				if (current != null) {
+					current.sessionClosed(session);
+				}
+			}
+			return false;
+		}
+		synchronized (entry) {
+			if (!modified.equals(entry.modified)) {
+				load(file, entry);
+			}
+		}
+		return true;
+	}
+
+	private void setUnknown(NodeId authenticationToken) {
+		if (unknownTokens.size() >= MAX_UNKNOWN_TOKENS) {
+			unknownTokens.clear();
+		}
+		unknownTokens.put(authenticationToken, Long.valueOf(System.nanoTime() + refreshNanos));
+	}
+
+	private Entry read(Path file, NodeId authenticationToken) {
+		Properties properties = readProperties(file);
+		if (properties == null) {
+			return null;
+		}
+		try {
+			Session session = new Session(authenticationToken,
+					NodeId.parseNodeId(properties.getProperty("sessionId")),
+					Long.parseLong(properties.getProperty("timeout")));
+			Entry entry = new Entry(session, false);
+			synchronized (entry) {
+				apply(properties, entry, false);
+				entry.modified = modified(file);
+			}
+			entry.checked = System.nanoTime();
+			return entry;
+		} catch (RuntimeException e) {
+			logger.warn("Ignoring invalid session file {}: {}", file, e.toString());
+			return null;
+		}
+	}
+
+	private void load(Path file, Entry entry) {
+		FileTime modified = modified(file);
+		Properties properties = readProperties(file);
+		if (properties == null) {
+			return;
+		}
+		try {
+			apply(properties, entry, true);
+			entry.modified = modified;
+		} catch (RuntimeException e) {
+			logger.warn("Ignoring invalid session file {}: {}", file, e.toString());
+		}
+	}
+
+	/**
+	 * Copies the replicated state into the session.
+	 *
+	 * @param keepLaterDeadline
+	 *            keep the deadline of the session if it is later than the
+	 *            replicated one
+	 */
+	private static void apply(Properties properties, Entry entry, boolean keepLaterDeadline) {
+		Session session = entry.session;
+		Session.State state = Session.State.valueOf(properties.getProperty("state"));
+		IEncodeable identity = decodeIdentity(properties);
+		long deadline = Long.parseLong(properties.getProperty("deadline"));
+		session.restore(state, identity, keepLaterDeadline ? Math.max(deadline, session.getDeadline()) : deadline);
+		entry.writtenState = state;
+		entry.writtenIdentity = session.getIdentity();
+		entry.writtenDeadline = deadline;
+	}
+
+	/**
+	 * Writes the session to its file. Called while holding the entry lock.
+	 */
+	private void write(Entry entry) {
+		Session session = entry.session;
+		Properties properties = new Properties();
+		properties.setProperty("sessionId", session.getSessionId().toString());
+		properties.setProperty("timeout", Long.toString(session.getTimeout()));
+		properties.setProperty("state", session.getState().name());
+		properties.setProperty("deadline", Long.toString(session.getDeadline()));
+		encodeIdentity(session.getIdentity(), properties);
+
+		Path file = file(session.getAuthenticationToken());
+		try {
+			Path temp = Files.createTempFile(directory, "session", ".tmp");
+			OutputStream output = Files.newOutputStream(temp);
+			try {
+				properties.store(output, null);
+			} finally {
+				output.close();
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			entry.modified = modified(file);
+			entry.writtenState = session.getState();
+			entry.writtenIdentity = session.getIdentity();
+			entry.writtenDeadline = session.getDeadline();
+		} catch (IOException e) {
+			// The session is still valid on this process
+			logger.warn("Unable to write session file {}: {}", file, e.toString());
+		}
+	}
+
+	private static void encodeIdentity(IEncodeable identity, Properties properties) {
+		if (identity instanceof AnonymousIdentityToken) {
+			properties.setProperty("identity", "anonymous");
+			setIfNotNull(properties, "identity.policyId", ((AnonymousIdentityToken) identity).getPolicyId());
+		} else if (identity instanceof UserNameIdentityToken) {
+			properties.setProperty("identity", "username");
+			setIfNotNull(properties, "identity.policyId", ((UserNameIdentityToken) identity).getPolicyId());
+			setIfNotNull(properties, "identity.userName", ((UserNameIdentityToken) identity).getUserName());
+		}
+	}
+
+	private static IEncodeable decodeIdentity(Properties properties) {
+		String type = properties.getProperty("identity");
+		if ("anonymous".equals(type)) {
+			return new AnonymousIdentityToken(properties.getProperty("identity.policyId"));
+		} else if ("username".equals(type)) {
+			return new UserNameIdentityToken(properties.getProperty("identity.policyId"),
+					properties.getProperty("identity.userName"), null, null);
+		}
+		return null;
+	}
+
+	private static void setIfNotNull(Properties properties, String key, String value) {
+		if (value != null) {
+			properties.setProperty(key, value);
+		}
+	}
+
+	private static Properties readProperties(Path file) {
+		try {
+			InputStream input = Files.newInputStream(file);
+			try {
+				Properties properties = new Properties();
+				properties.load(input);
+				return properties;
+			} finally {
+				input.close();
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warn("Unable to read session file {}: {}", file, e.toString());
+			return null;
+		}
+	}
+
+	private static FileTime modified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Unable to delete session file {}: {}", file, e.toString());
+		}
+	}
+
+	/**
+	 * @return the file of a session, named by a hash of the token so that
+	 *         any token gives a valid file name
+	 */
+	private Path file(NodeId authenticationToken) {
+		byte[] digest = DIGEST.get().digest(authenticationToken.toString().getBytes(StandardCharsets.UTF_8));
+		StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+		for (byte b : digest) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return directory.resolve(name.append(SUFFIX).toString());
+	}
+
+}
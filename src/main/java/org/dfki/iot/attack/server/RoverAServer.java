@@ -1,17 +1,16 @@
 package org.dfki.iot.attack.server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
@@ -19,11 +18,11 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
 import java.util.Scanner;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.http.conn.ssl.SSLSocketFactory;
@@ -36,6 +35,7 @@ import org.dfki.iot.attack.util.EventLogUtil;
 import org.dfki.iot.attack.util.ExampleKeys;
 import org.dfki.iot.attack.util.GenericUtil;
 import org.dfki.iot.attack.util.JSONUtil;
+import org.dfki.iot.attack.util.ResourceWatcher;
 import org.opcfoundation.ua.application.Application;
 import org.opcfoundation.ua.application.Server;
 import org.opcfoundation.ua.builtintypes.ByteString;
@@ -51,7 +51,6 @@ import org.opcfoundation.ua.builtintypes.UnsignedInteger;
 import org.opcfoundation.ua.builtintypes.Variant;
 import org.opcfoundation.ua.common.ServiceFaultException;
 import org.opcfoundation.ua.common.ServiceResultException;
-import org.opcfoundation.ua.core.AccessLevel;
 import org.opcfoundation.ua.core.ActivateSessionRequest;
 import org.opcfoundation.ua.core.ActivateSessionResponse;
 import org.opcfoundation.ua.core.AddNodesItem;
@@ -70,6 +69,7 @@ import org.opcfoundation.ua.core.BrowseNextResponse;
 import org.opcfoundation.ua.core.BrowseRequest;
 import org.opcfoundation.ua.core.BrowseResponse;
 import org.opcfoundation.ua.core.BrowseResult;
+import org.opcfoundation.ua.core.BuildInfo;
 import org.opcfoundation.ua.core.CallRequest;
 import org.opcfoundation.ua.core.CallResponse;
 import org.opcfoundation.ua.core.CancelRequest;
@@ -105,10 +105,12 @@ import org.opcfoundation.ua.core.RegisterNodesRequest;
 import org.opcfoundation.ua.core.RegisterNodesResponse;
 import org.opcfoundation.ua.core.RequestHeader;
 import org.opcfoundation.ua.core.ResponseHeader;
+import org.opcfoundation.ua.core.ServerState;
 import org.opcfoundation.ua.core.ServiceFault;
 import org.opcfoundation.ua.core.SessionServiceSetHandler;
 import org.opcfoundation.ua.core.SignatureData;
 import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.core.TimestampsToReturn;
 import org.opcfoundation.ua.core.TranslateBrowsePathsToNodeIdsRequest;
 import org.opcfoundation.ua.core.TranslateBrowsePathsToNodeIdsResponse;
 import org.opcfoundation.ua.core.UnregisterNodesRequest;
@@ -140,17 +142,43 @@ import com.maxmind.geoip2.exception.GeoIp2Exception;
 public class RoverAServer {
 
 	private static final Logger logger = LoggerFactory.getLogger(RoverAServer.class);
-	static Map<NodeId, Map<UnsignedInteger, DataValue>> onReadResultsMap;
-	static Map<NodeId, Class<?>> datatypeMap;
-
-	// Make ArrayList for authentication tokens
-	static ArrayList<NodeId> validAuthenticationTokens = new ArrayList<NodeId>();
-	static ArrayList<NodeId> sessions = new ArrayList<NodeId>();
-	static Map<NodeId, Long> timeoutPeriods = new HashMap<NodeId, Long>();
-	// The list of authorized users. Currently all the valid users except
+	static NodeStore nodeStore;
+	static BatchExecutor batchExecutor;
+	// Runs the fetches of the data sources bound in the nodeset
+	static ExecutorService dataSourceExecutor;
+	static WritePipeline writePipeline;
+	// Operation limits, advertised in ServerCapabilities.OperationLimits
+	static int maxNodesPerRead;
+	static int maxNodesPerBrowse;
+	static int maxNodesPerWrite;
+	// Live values of the ServerStatus nodes
+	static ServerStatusProvider serverStatus;
+
+	// All sessions by authentication token, with their activation state,
+	// user identity and timeout. Currently all the valid users except
 	// ANONYMOUS users are authorized.
-	static Map<NodeId, IEncodeable> userAuthorization = new HashMap<NodeId, IEncodeable>();
-	static ContinuationPoint continuationPoint;
+	// The sessions are stored in this process or shared with other server
+	// processes, see session.store
+	static SessionRegistry sessionRegistry;
+	// Removes sessions whose timeout has passed
+	static SessionReaper sessionReaper;
+	// Random bytes for authentication tokens and server nonces
+	static NonceSource nonceSource;
+	// Watches configuration files on the classpath for changes
+	static ResourceWatcher resourceWatcher;
+	// User names and password hashes for UserName identity tokens
+	static CredentialStore credentialStore;
+	// Operations to audit, from monitor.operations
+	static AuditPolicy auditPolicy;
+	// Runs CreateSession and ActivateSession, which need RSA operations
+	static CryptoExecutor cryptoExecutor;
+	// Rate limits per client address and subnet and the session limit
+	static AdmissionController admissionController;
+	// Server certificate, endpoints and signature engines for CreateSession
+	static SessionSetupCache sessionSetupCache;
+	static SignatureEngines signatureEngines = new SignatureEngines();
+	// Browse continuation points of every session
+	static ContinuationPointManager continuationPoints;
 
 	static RoverAServerExample roverServer;
 
@@ -159,25 +187,31 @@ public class RoverAServer {
 	private static final File continentCountryMapJSONFile = new File("./src/main/resources/continentCountryMap.json");
 
 	/**
-	 * Class to represent ContinuationPoint. This Server supports one
-	 * continuation point at a time.
+	 * Class to represent ContinuationPoint. The points are stored per session
+	 * by the {@link ContinuationPointManager}.
+	 *
+	 * The references of the Browse result are kept in one array that is never
+	 * modified; each page advances a cursor and returns a copy of only that
+	 * page. Every page gets a new random id, so ids cannot be guessed and do
+	 * not repeat.
 	 */
 	static class ContinuationPoint {
-		private UnsignedInteger requestedMaxReferencesPerNode;
+		private final UnsignedInteger requestedMaxReferencesPerNode;
+
+		private final ReferenceDescription[] referenceDescriptions;
 
-		private ReferenceDescription[] referenceDescriptions;
+		private final NodeId authenticationToken;
 
-		private NodeId authenticationToken;
+		// Index of the first reference of the next page
+		private int position;
 
 		private ByteString currentContinuationPoint;
 
 		public ContinuationPoint(UnsignedInteger requestedMaxReferencesPerNode,
-				ReferenceDescription[] referenceDescriptions, NodeId authenticationToken,
-				ByteString currentContinuationPoint) {
+				ReferenceDescription[] referenceDescriptions, NodeId authenticationToken) {
 			this.requestedMaxReferencesPerNode = requestedMaxReferencesPerNode;
 			this.referenceDescriptions = referenceDescriptions;
 			this.authenticationToken = authenticationToken;
-			this.currentContinuationPoint = currentContinuationPoint;
 		}
 
 		/**
@@ -195,68 +229,44 @@ public class RoverAServer {
 		}
 
 		/**
-		 * @return those references that belong to next BrowseNext response
-		 * @param continuationPointRequested
-		 *            identify current continuation points
+		 * @param currentContinuationPoint
+		 *            the id of the next page
 		 */
-		public BrowseResult getNextReferencesDescriptions(ByteString continuationPointRequested) {
-			// ByteString continuationPointRequested may be used to identify
-			// different continuation points
-			ArrayList<ReferenceDescription> referenceDescriptionsToReturn = new ArrayList<ReferenceDescription>();
-			ArrayList<ReferenceDescription> originalReferenceDescriptions = new ArrayList<ReferenceDescription>(
-					Arrays.asList(referenceDescriptions));
-
-			int length = Math.min(continuationPoint.getRequestedMaxReferencesPerNode().intValue(),
-					referenceDescriptions.length);
-			// return only certain amount of references
-			referenceDescriptionsToReturn.addAll(originalReferenceDescriptions.subList(0, length));
-			// Remove these references from this ContinuationPoint
-			originalReferenceDescriptions.subList(0, length).clear();
-			referenceDescriptions = originalReferenceDescriptions
-					.toArray(new ReferenceDescription[originalReferenceDescriptions.size()]);
-			// return referenceDescriptionsToReturn;
-			if (referenceDescriptions.length > 0) {
-				this.currentContinuationPoint = ByteString
-						.valueOf(new byte[] { (byte) (continuationPointRequested.getValue()[0] + (byte) 1) });
-				return new BrowseResult(StatusCode.GOOD, currentContinuationPoint, referenceDescriptionsToReturn
-						.toArray(new ReferenceDescription[referenceDescriptionsToReturn.size()]));
-			}
-			// if no references are left, then do not return continuationPoint
-			// anymore
-			return new BrowseResult(StatusCode.GOOD, null, referenceDescriptionsToReturn
-					.toArray(new ReferenceDescription[referenceDescriptionsToReturn.size()]));
-		}
-
-		public ReferenceDescription[] getReferenceDescriptions() {
-			return this.referenceDescriptions;
-		}
-
-		public UnsignedInteger getRequestedMaxReferencesPerNode() {
-			return this.requestedMaxReferencesPerNode;
+		void setCurrentContinuationPoint(ByteString currentContinuationPoint) {
+			this.currentContinuationPoint = currentContinuationPoint;
 		}
 
 		/**
-		 * @param authenticationToken
-		 *            the authenticationToken to set
+		 * @return those references that belong to next BrowseNext response
+		 * @param nextContinuationPoint
+		 *            id of the page after this one, returned if references
+		 *            are left
 		 */
-		public void setAuthenticationToken(NodeId authenticationToken) {
-			this.authenticationToken = authenticationToken;
+		public BrowseResult getNextReferencesDescriptions(ByteString nextContinuationPoint) {
+			int pageSize = requestedMaxReferencesPerNode == null || requestedMaxReferencesPerNode.intValue() <= 0
+					? referenceDescriptions.length : requestedMaxReferencesPerNode.intValue();
+			int end = (int) Math.min((long) position + pageSize, referenceDescriptions.length);
+			ReferenceDescription[] page = Arrays.copyOfRange(referenceDescriptions, position, end);
+			position = end;
+			if (position < referenceDescriptions.length) {
+				this.currentContinuationPoint = nextContinuationPoint;
+				return new BrowseResult(StatusCode.GOOD, currentContinuationPoint, page);
+			}
+			// if no references are left, then do not return continuationPoint
+			// anymore
+			this.currentContinuationPoint = null;
+			return new BrowseResult(StatusCode.GOOD, null, page);
 		}
 
 		/**
-		 * @param currentContinuationPoint
-		 *            the currentContinuationPoint to set
+		 * @return the number of references not returned yet
 		 */
-		public void setCurrentContinuationPoint(ByteString currentContinuationPoint) {
-			this.currentContinuationPoint = currentContinuationPoint;
+		public int getRemaining() {
+			return referenceDescriptions.length - position;
 		}
 
-		public void setReferenceDescriptions(ReferenceDescription[] referenceDescriptions) {
-			this.referenceDescriptions = referenceDescriptions;
-		}
-
-		public void setRequestedMaxReferencesPerNode(UnsignedInteger requestedMaxReferencesPerNode) {
-			this.requestedMaxReferencesPerNode = requestedMaxReferencesPerNode;
+		public UnsignedInteger getRequestedMaxReferencesPerNode() {
+			return this.requestedMaxReferencesPerNode;
 		}
 	}
 
@@ -306,7 +316,7 @@ public class RoverAServer {
 
 			FindServersResponse response = new FindServersResponse(header, servers);
 
-			if (GenericUtil.enableAuditing("onFindServers")) {
+			if (auditPolicy.isAudited(ServiceOperation.FIND_SERVERS)) {
 
 				EventParamModel eventParamModel = new EventParamModel();
 				eventParamModel.setAuthenToken(request.getRequestHeader().getAuthenticationToken().toString());
@@ -339,24 +349,31 @@ public class RoverAServer {
 			AddNodesRequest request = msgExchange.getRequest();
 			AddNodesItem[] nodesToAdd = request.getNodesToAdd();
 			AddNodesResponse response = new AddNodesResponse();
-			AddNodesResult[] addNodesResult = new AddNodesResult[msgExchange.getRequest().getNodesToAdd().length];
-			IEncodeable iEncodeable = userAuthorization
-					.get(msgExchange.getRequest().getRequestHeader().getAuthenticationToken());
-			
-			String authorisation = GenericUtil.readServerPropertyConfigFile("authorisation");
-			if ("true".equalsIgnoreCase(authorisation)) {
-				if (!(iEncodeable instanceof AnonymousIdentityToken)) {
-					addNodeProperties(nodesToAdd, response, addNodesResult);
+			// Rejects unknown and expired sessions and keeps the session of a
+			// valid request alive
+			ResponseHeader responseHeader = checkRequestHeader(request.getRequestHeader());
+			response.setResponseHeader(responseHeader);
+
+			if (responseHeader.getServiceResult().isGood()) {
+				AddNodesResult[] addNodesResult = new AddNodesResult[msgExchange.getRequest().getNodesToAdd().length];
+				IEncodeable iEncodeable = sessionRegistry
+						.getIdentity(msgExchange.getRequest().getRequestHeader().getAuthenticationToken());
+
+				String authorisation = GenericUtil.readServerPropertyConfigFile("authorisation");
+				if ("true".equalsIgnoreCase(authorisation)) {
+					if (!(iEncodeable instanceof AnonymousIdentityToken)) {
+						addNodeProperties(nodesToAdd, response, addNodesResult);
+					} else {
+						addNodesResult[0] = new AddNodesResult();
+						addNodesResult[0].setStatusCode(new StatusCode(StatusCodes.Bad_UserAccessDenied));
+						response.setResults(addNodesResult);
+					}
 				} else {
-					addNodesResult[0] = new AddNodesResult();
-					addNodesResult[0].setStatusCode(new StatusCode(StatusCodes.Bad_UserAccessDenied));
-					response.setResults(addNodesResult);
+					addNodeProperties(nodesToAdd, response, addNodesResult);
 				}
-			} else {
-				addNodeProperties(nodesToAdd, response, addNodesResult);
 			}
 
-			if (GenericUtil.enableAuditing("onAddNodes")) {
+			if (auditPolicy.isAudited(ServiceOperation.ADD_NODES)) {
 				EventParamModel eventParamModel = new EventParamModel();
 				eventParamModel.setAuthenToken(request.getRequestHeader().getAuthenticationToken().toString());
 				eventParamModel.setAuditId(request.getRequestHeader().getAuditEntryId());
@@ -395,36 +412,29 @@ public class RoverAServer {
 				final DateTime serverTimeStamp = DateTime.currentTime();
 				// final String applicationURI =
 				// application.getApplicationUri();
-				onReadResultsMap.put(id, new HashMap<UnsignedInteger, DataValue>() {
-					/**
-					* 
-					*/
-					private static final long serialVersionUID = 1L;
-
-					{
-						put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_NamespaceArray),
-								StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.NodeClass,
-								new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("NamespaceArray")),
-								StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.DisplayName,
+				nodeStore.put(id, new NodeAttributes()
+						.put(Attributes.NodeId,
+								new DataValue(new Variant(Identifiers.Server_NamespaceArray), StatusCode.GOOD, null,
+										serverTimeStamp))
+						.put(Attributes.NodeClass,
+								new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("NamespaceArray")),
+								StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.DisplayName,
 								new DataValue(new Variant(new LocalizedText("NamespaceArray", LocalizedText.NO_LOCALE)),
-										StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.Description,
+										StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.Description,
 								new DataValue(
 										new Variant(new LocalizedText("The list of namespace URIs used by the server.",
 												LocalizedText.NO_LOCALE)),
-										StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.WriteMask, new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD,
-								null, serverTimeStamp));
-						put(Attributes.UserWriteMask, new DataValue(new Variant(new UnsignedInteger(0)),
-								StatusCode.GOOD, null, serverTimeStamp));
-						put(Attributes.Value, new DataValue(new Variant(
-								new String[] { "http://opcfoundation.org/UA/", "http://opcfoundation.org/UA/" }),
-								StatusCode.GOOD, null, serverTimeStamp));
-					}
-				});
+										StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.WriteMask,
+								new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.UserWriteMask,
+								new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp))
+						.put(Attributes.Value, new DataValue(
+								new Variant(new String[] { "http://opcfoundation.org/UA/", "http://opcfoundation.org/UA/" }),
+								StatusCode.GOOD, null, serverTimeStamp)));
 
 				response.setResults(new AddNodesResult[] { new AddNodesResult(StatusCode.GOOD, id) });
 				i++;
@@ -459,8 +469,40 @@ public class RoverAServer {
 
 		public void onBrowseNext(EndpointServiceRequest<BrowseNextRequest, BrowseNextResponse> msgExchange)
 				throws ServiceFaultException {
-			throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NotImplemented));
+			BrowseNextRequest request = msgExchange.getRequest();
+			ByteString[] ids = request.getContinuationPoints();
+			NodeId authenticationToken = request.getRequestHeader().getAuthenticationToken();
+
+			BrowseResult[] results = null;
+			ResponseHeader responseHeader = checkRequestHeader(request.getRequestHeader());
+			if (responseHeader.getServiceResult().isGood()) {
+				if (ids == null || ids.length == 0) {
+					responseHeader = new ResponseHeader(DateTime.currentTime(),
+							request.getRequestHeader().getRequestHandle(),
+							new StatusCode(StatusCodes.Bad_NothingToDo), null, null, null);
+				} else if (ids.length > maxNodesPerBrowse) {
+					responseHeader = new ResponseHeader(DateTime.currentTime(),
+							request.getRequestHeader().getRequestHandle(),
+							new StatusCode(StatusCodes.Bad_TooManyOperations), null, null, null);
+				} else {
+					results = new BrowseResult[ids.length];
+					boolean release = Boolean.TRUE.equals(request.getReleaseContinuationPoints());
+					for (int i = 0; i < ids.length; i++) {
+						if (release) {
+							results[i] = new BrowseResult(
+									continuationPoints.release(authenticationToken, ids[i]) ? StatusCode.GOOD
+											: new StatusCode(StatusCodes.Bad_ContinuationPointInvalid),
+									null, null);
+						} else {
+							results[i] = continuationPoints.next(authenticationToken, ids[i]);
+						}
+					}
+				}
+			}
 
+			BrowseNextResponse response = new BrowseNextResponse(null, results, null);
+			response.setResponseHeader(responseHeader);
+			msgExchange.sendResponse(response);
 		}
 
 		public void onTranslateBrowsePathsToNodeIds(
@@ -531,75 +573,23 @@ public class RoverAServer {
 					responseHeader = new ResponseHeader(DateTime.currentTime(),
 							request.getRequestHeader().getRequestHandle(),
 							new StatusCode(StatusCodes.Bad_TimestampsToReturnInvalid), null, null, null);
+				} else if (nodesToRead != null && nodesToRead.length > maxNodesPerRead) {
+					responseHeader = new ResponseHeader(DateTime.currentTime(),
+							request.getRequestHeader().getRequestHandle(),
+							new StatusCode(StatusCodes.Bad_TooManyOperations), null, null, null);
 				} else if (nodesToRead != null) {
-					// Do actual handling of NodesToRead
-
-					results = new DataValue[nodesToRead.length];
-					DateTime serverTimestamp = DateTime.currentTime();
-					for (int i = 0; i < nodesToRead.length; i++) {
-						results[i] = null;
-						Map<UnsignedInteger, DataValue> attributeMap = onReadResultsMap.get(nodesToRead[i].getNodeId());
-
-						if (attributeMap != null) {
-
-							if (attributeMap.containsKey(nodesToRead[i].getAttributeId())) {
-								results[i] = (DataValue) attributeMap.get(nodesToRead[i].getAttributeId()).clone();
-
-								if (results[i] == null) {
-									results[i] = new DataValue(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
-								} else if (new UnsignedInteger(13).equals(nodesToRead[i].getAttributeId())) {
-									// check maxAge
-									DateTime currentTimestamp = results[i].getServerTimestamp();
-									DateTime currentTime = DateTime.fromMillis(System.currentTimeMillis());
-									long age = currentTime.getTimeInMillis() - currentTimestamp.getTimeInMillis();
-									long maxAge = request.getMaxAge().longValue();
-									long diff = maxAge - age;
-									// If the server does not have a value that
-									// is within the maximum age, it shall
-									// attempt to read a new value from the data
-									// source.
-									// If maxAge is set to 0, the server shall
-									// attempt to read a new value from the data
-									// source.
-									if (diff <= 0) {
-										// read new value, simulated here by
-										// refreshing timestamp
-										results[i].setServerTimestamp(serverTimestamp);
-									}
-									/*
-									 * This could also be checked here but it is
-									 * now ignored: If maxAge is set to the max
-									 * Int32 value or greater, the server shall
-									 * attempt to get a cached value.
-									 */
-
-									if (request.getTimestampsToReturn() != null) {
-										// check TimestampsToReturn
-										switch (request.getTimestampsToReturn()) {
-										case Source:
-											results[i].setSourceTimestamp(serverTimestamp);
-											results[i].setServerTimestamp(null);
-											break;
-										case Both:
-											results[i].setSourceTimestamp(serverTimestamp);
-											break;
-										case Neither:
-											results[i].setServerTimestamp(null);
-											break;
-										default:
-											// case Server
-											break;
-										}
-									}
-
-								}
-							} else {
-								results[i] = new DataValue(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
-							}
-						} else {
-							results[i] = new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+					// Do actual handling of NodesToRead. Large requests are
+					// split into chunks that are read in parallel.
+					final ReadValueId[] items = nodesToRead;
+					final DataValue[] values = results = new DataValue[nodesToRead.length];
+					final double maxAge = request.getMaxAge();
+					final TimestampsToReturn timestampsToReturn = request.getTimestampsToReturn();
+					final DateTime serverTimestamp = DateTime.currentTime();
+					batchExecutor.execute(nodesToRead.length, new BatchExecutor.ItemTask() {
+						public void run(int index) {
+							values[index] = readValue(items[index], maxAge, timestampsToReturn, serverTimestamp);
 						}
-					}
+					});
 				} else {
 					// NodesToRead is empty
 					responseHeader = new ResponseHeader(DateTime.currentTime(),
@@ -616,7 +606,7 @@ public class RoverAServer {
 
 			response = new ReadResponse(responseHeader, results, null);
 
-			if (GenericUtil.enableAuditing("onRead")) {
+			if (auditPolicy.isAudited(ServiceOperation.READ)) {
 				EventParamModel eventParamModel = new EventParamModel();
 				eventParamModel.setAuthenToken(
 						msgExchange.getRequest().getRequestHeader().getAuthenticationToken().toString());
@@ -645,6 +635,47 @@ public class RoverAServer {
 			msgExchange.sendResponse(response);
 		}
 
+		/**
+		 * Reads a single attribute.
+		 *
+		 * @return the attribute value or a DataValue with a bad status code
+		 */
+		private DataValue readValue(ReadValueId nodeToRead, double maxAge, TimestampsToReturn timestampsToReturn,
+				DateTime serverTimestamp) {
+			NodeAttributes attributes = nodeStore.get(nodeToRead.getNodeId());
+			if (attributes == null) {
+				return new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+			}
+
+			if (Attributes.Value.equals(nodeToRead.getAttributeId())) {
+				ValueProvider valueProvider = attributes.getValueProvider();
+				if (valueProvider != null) {
+					// Computed on read
+					return ValueSnapshot.select(valueProvider.getValue(), timestampsToReturn);
+				}
+				DataSourceCache dataSource = attributes.getDataSource();
+				if (dataSource != null) {
+					// Served from the cache or fetched from the data source
+					// according to maxAge
+					return ValueSnapshot.select(dataSource.read(maxAge), timestampsToReturn);
+				}
+			}
+
+			if (Attributes.Value.equals(nodeToRead.getAttributeId())) {
+				// check maxAge and TimestampsToReturn
+				DataValue value = attributes.readValue(maxAge, timestampsToReturn, serverTimestamp);
+				return value != null ? value : new DataValue(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+			}
+
+			DataValue attributeValue = attributes.get(nodeToRead.getAttributeId());
+			if (attributeValue == null) {
+				return new DataValue(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+			}
+			// stored values are immutable snapshots and are returned without
+			// copying
+			return attributeValue;
+		}
+
 		/**
 		 * Handle write request.
 		 */
@@ -657,185 +688,41 @@ public class RoverAServer {
 
 			StatusCode[] results = null;
 			StatusCode serviceResultCode = null;
-			IEncodeable iEncodeable = userAuthorization
-					.get(msgExchange.getRequest().getRequestHeader().getAuthenticationToken());
-
+			// Rejects unknown and expired sessions and keeps the session of a
+			// valid request alive
+			ResponseHeader h = checkRequestHeader(request.getRequestHeader());
+
+			// Authorize once for the whole request. With authorisation
+			// enabled, anonymous users are not allowed to write.
+			IEncodeable iEncodeable = sessionRegistry
+					.getIdentity(msgExchange.getRequest().getRequestHeader().getAuthenticationToken());
 			String authorisation = GenericUtil.readServerPropertyConfigFile("authorisation");
-			if ("true".equalsIgnoreCase(authorisation)) {
-
-				if (!(iEncodeable instanceof AnonymousIdentityToken)) {
-
-					if (nodesToWrite != null) {
-						// check here that Bad_TooManyOperations should not be
-						// set. No
-						// limit for operations in this implementation.
-						// Now set service result to GOOD always if nodesToWrite
-						// is not
-						// null.
-						serviceResultCode = StatusCode.GOOD;
-
-						results = new StatusCode[nodesToWrite.length];
-						for (int i = 0; i < nodesToWrite.length; i++) {
-							// Get all attributes of the specified node
-							Map<UnsignedInteger, DataValue> attributeMap = onReadResultsMap
-									.get(nodesToWrite[i].getNodeId());
-
-							if (attributeMap != null) {
-								if (attributeMap.containsKey(nodesToWrite[i].getAttributeId())) {
-
-									if (new UnsignedInteger(13).equals(nodesToWrite[i].getAttributeId())) {
-										// Write value attribute
-										// Check data type using nodes DataType
-										// attribute
-										// Validation is done with datatypeMap
-										// to enable
-										// easy modification of valid data types
-										NodeId datatype = (NodeId) attributeMap.get(Attributes.DataType).getValue()
-												.getValue();
-										if (datatype == null) {
-											// Error: Current node does not have
-											// data
-											// type specified
-											results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-										} else {
-											// Data type is defined for current
-											// node
-											// Get java class corresponding to
-											// this OPC
-											// UA data type
-											Class<?> targetDataType = datatypeMap.get(datatype);
-											if (targetDataType == null) {
-												// No java data type found for
-												// this ua
-												// type
-												results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-											} else {
-												// Compare data type of value
-												// attribute
-												// and value from write request
-												if (targetDataType.isAssignableFrom(
-														nodesToWrite[i].getValue().getValue().getValue().getClass())) {
-													attributeMap.get(nodesToWrite[i].getAttributeId())
-															.setValue(nodesToWrite[i].getValue().getValue());
-													results[i] = StatusCode.GOOD;
-												} else {
-													// values do not match
-													results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-												}
-											}
-										}
-									} else {
-										// Write no other attribute than value.
-										// Correct data type should also be
-										// checked
-										// here.
-										attributeMap.get(nodesToWrite[i].getAttributeId())
-												.setValue(nodesToWrite[i].getValue().getValue());
-									}
-								} else {
-									results[i] = new StatusCode(StatusCodes.Bad_AttributeIdInvalid);
-								}
-							} else {
-								results[i] = new StatusCode(StatusCodes.Bad_NodeIdInvalid);
-							}
-						}
-					} else {
-						// Empty nodesToWrite array
-						serviceResultCode = new StatusCode(StatusCodes.Bad_NothingToDo);
-					}
-
-				} else {
-					results = new StatusCode[1];
-					results[0] = new StatusCode(StatusCodes.Bad_UserAccessDenied);
-
-				}
+			boolean accessDenied = "true".equalsIgnoreCase(authorisation)
+					&& iEncodeable instanceof AnonymousIdentityToken;
+
+			if (!h.getServiceResult().isGood()) {
+				serviceResultCode = h.getServiceResult();
+			} else if (nodesToWrite == null || nodesToWrite.length == 0) {
+				// Empty nodesToWrite array
+				serviceResultCode = new StatusCode(StatusCodes.Bad_NothingToDo);
+			} else if (nodesToWrite.length > maxNodesPerWrite) {
+				serviceResultCode = new StatusCode(StatusCodes.Bad_TooManyOperations);
+			} else if (accessDenied) {
+				serviceResultCode = StatusCode.GOOD;
+				results = new StatusCode[nodesToWrite.length];
+				Arrays.fill(results, new StatusCode(StatusCodes.Bad_UserAccessDenied));
 			} else {
-
-				if (nodesToWrite != null) {
-					// check here that Bad_TooManyOperations should not be set.
-					// No
-					// limit for operations in this implementation.
-					// Now set service result to GOOD always if nodesToWrite is
-					// not
-					// null.
-					serviceResultCode = StatusCode.GOOD;
-
-					results = new StatusCode[nodesToWrite.length];
-					for (int i = 0; i < nodesToWrite.length; i++) {
-						// Get all attributes of the specified node
-						Map<UnsignedInteger, DataValue> attributeMap = onReadResultsMap
-								.get(nodesToWrite[i].getNodeId());
-
-						if (attributeMap != null) {
-							if (attributeMap.containsKey(nodesToWrite[i].getAttributeId())) {
-
-								if (new UnsignedInteger(13).equals(nodesToWrite[i].getAttributeId())) {
-									// Write value attribute
-									// Check data type using nodes DataType
-									// attribute
-									// Validation is done with datatypeMap to
-									// enable
-									// easy modification of valid data types
-									NodeId datatype = (NodeId) attributeMap.get(Attributes.DataType).getValue()
-											.getValue();
-									if (datatype == null) {
-										// Error: Current node does not have
-										// data
-										// type specified
-										results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-									} else {
-										// Data type is defined for current node
-										// Get java class corresponding to this
-										// OPC
-										// UA data type
-										Class<?> targetDataType = datatypeMap.get(datatype);
-										if (targetDataType == null) {
-											// No java data type found for this
-											// ua
-											// type
-											results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-										} else {
-											// Compare data type of value
-											// attribute
-											// and value from write request
-											if (targetDataType.isAssignableFrom(
-													nodesToWrite[i].getValue().getValue().getValue().getClass())) {
-												attributeMap.get(nodesToWrite[i].getAttributeId())
-														.setValue(nodesToWrite[i].getValue().getValue());
-												results[i] = StatusCode.GOOD;
-											} else {
-												// values do not match
-												results[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-											}
-										}
-									}
-								} else {
-									// Write no other attribute than value.
-									// Correct data type should also be checked
-									// here.
-									attributeMap.get(nodesToWrite[i].getAttributeId())
-											.setValue(nodesToWrite[i].getValue().getValue());
-								}
-							} else {
-								results[i] = new StatusCode(StatusCodes.Bad_AttributeIdInvalid);
-							}
-						} else {
-							results[i] = new StatusCode(StatusCodes.Bad_NodeIdInvalid);
-						}
-					}
-				} else {
-					// Empty nodesToWrite array
-					serviceResultCode = new StatusCode(StatusCodes.Bad_NothingToDo);
-				}
-
+				// Validate and commit the items
+				serviceResultCode = StatusCode.GOOD;
+				results = writePipeline.write(nodesToWrite);
 			}
 			WriteResponse response = new WriteResponse(null, results, null);
 			// Set response header to pass ctt check_responseHeader_error.js
-			ResponseHeader h = new ResponseHeader(DateTime.currentTime(), request.getRequestHeader().getRequestHandle(),
+			h = new ResponseHeader(DateTime.currentTime(), request.getRequestHeader().getRequestHandle(),
 					serviceResultCode, null, null, null);
 			response.setResponseHeader(h);
 
-			if (GenericUtil.enableAuditing("onWrite")) {
+			if (auditPolicy.isAudited(ServiceOperation.WRITE)) {
 				EventParamModel eventParamModel = new EventParamModel();
 				eventParamModel.setAuthenToken(
 						msgExchange.getRequest().getRequestHeader().getAuthenticationToken().toString());
@@ -911,310 +798,148 @@ public class RoverAServer {
 				logger.info("{} bound at {}", endpointAddress, bindAddress);
 				bind(bindAddress, endpointAddress, SecurityMode.ALL_101);
 			}
+			sessionSetupCache = new SessionSetupCache(this);
+
+			if ("replicated".equalsIgnoreCase(GenericUtil.readServerPropertyConfigFile("session.store"))) {
+				String sessionDirectory = GenericUtil.readServerPropertyConfigFile("session.store.directory");
+				sessionRegistry = new SessionRegistry(new ReplicatedSessionStore(
+						Paths.get(sessionDirectory != null ? sessionDirectory : "./sessions"),
+						GenericUtil.readServerPropertyConfigFile("session.store.refreshMillis", 1000),
+						GenericUtil.readServerPropertyConfigFile("session.store.sweepMillis", 60000)));
+			} else {
+				sessionRegistry = new SessionRegistry(new InProcessSessionStore());
+			}
 
-			// Set continuationPoint to null at start-up
-			continuationPoint = null;
+			admissionController = new AdmissionController(sessionRegistry,
+					GenericUtil.readServerPropertyConfigFile("admission.address.rate", 5),
+					GenericUtil.readServerPropertyConfigFile("admission.address.burst", 20),
+					GenericUtil.readServerPropertyConfigFile("admission.subnet.rate", 50),
+					GenericUtil.readServerPropertyConfigFile("admission.subnet.burst", 200),
+					GenericUtil.readServerPropertyConfigFile("admission.maxSessions", 1000),
+					GenericUtil.readServerPropertyConfigFile("admission.maxTrackedAddresses", 100000));
+
+			cryptoExecutor = new CryptoExecutor(
+					GenericUtil.readServerPropertyConfigFile("crypto.threads",
+							Runtime.getRuntime().availableProcessors()),
+					GenericUtil.readServerPropertyConfigFile("crypto.queueCapacity", 256));
+
+			resourceWatcher = new ResourceWatcher();
+			String usersFile = GenericUtil.readServerPropertyConfigFile("users.file");
+			credentialStore = new CredentialStore(usersFile != null ? usersFile : "users.properties", resourceWatcher);
+			auditPolicy = new AuditPolicy(resourceWatcher);
+
+			nonceSource = new NonceSource(GenericUtil.readServerPropertyConfigFile("nonce.blockSize", 4096),
+					GenericUtil.readServerPropertyConfigFile("nonce.prefetchBlocks", 16));
+
+			// Continuation points are kept per session and dropped with the
+			// session
+			continuationPoints = new ContinuationPointManager(
+					GenericUtil.readServerPropertyConfigFile("MaxBrowseContinuationPoints", 10), nonceSource);
+			sessionRegistry.addListener(continuationPoints);
+
+			// Expire sessions on their deadline
+			sessionReaper = new SessionReaper(sessionRegistry,
+					GenericUtil.readServerPropertyConfigFile("session.reaper.tickMillis", 1000),
+					GenericUtil.readServerPropertyConfigFile("session.reaper.wheelSize", 128));
+			sessionReaper.start();
+
+			// Operation limits and batched execution of large Read and Write
+			// requests
+			maxNodesPerRead = GenericUtil.readServerPropertyConfigFile("MaxNodesPerRead", 10000);
+			maxNodesPerWrite = GenericUtil.readServerPropertyConfigFile("MaxNodesPerWrite", 10000);
+			maxNodesPerBrowse = GenericUtil.readServerPropertyConfigFile("MaxNodesPerBrowse", 1000);
+			batchExecutor = new BatchExecutor(GenericUtil.readServerPropertyConfigFile("batch.size", 1000),
+					GenericUtil.readServerPropertyConfigFile("batch.parallelism",
+							Runtime.getRuntime().availableProcessors()));
 
 			// *******************************************************************************
-			// Put all read datavalues in one HashMap for better readability and
-			// performance
+			// Load the address space from the nodeset file. In lazy mode only
+			// an index of the file is built here and the attribute table of a
+			// node is created when it is accessed for the first time.
 			// *******************************************************************************
 			final DateTime serverTimeStamp = DateTime.currentTime();
-			onReadResultsMap = new HashMap<NodeId, Map<UnsignedInteger, DataValue>>();
-
-			final String applicationURI = application.getApplicationUri();
-
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_CurrentTime,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(new Variant(serverTimeStamp), StatusCode.GOOD, null,
-									serverTimeStamp));
-						}
-					});
-			onReadResultsMap.put(Identifiers.Server_ServerCapabilities_LocaleIdArray,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value,
-									new DataValue(new Variant(new String[1]), StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-
-			onReadResultsMap.put(Identifiers.Server_ServerStatus, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_ServerStatus), StatusCode.GOOD,
-							null, serverTimeStamp));
-					put(Attributes.NodeClass,
-							new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("ServerStatus")),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.DisplayName,
-							new DataValue(new Variant(new LocalizedText("ServerStatus", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Description,
-							new DataValue(new Variant(
-									new LocalizedText("The current status of the server.", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.WriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.UserWriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-				}
-			});
-
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_State, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_ServerStatus_State),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.NodeClass,
-							new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("State")), StatusCode.GOOD,
-							null, serverTimeStamp));
-					put(Attributes.DisplayName,
-							new DataValue(new Variant(new LocalizedText("State", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Description,
-							new DataValue(new Variant(new LocalizedText("", LocalizedText.NO_LOCALE)), StatusCode.GOOD,
-									null, serverTimeStamp));
-					put(Attributes.WriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.UserWriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Value,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-				}
-			});
-			onReadResultsMap.put(Identifiers.Server_NamespaceArray, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_NamespaceArray),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.NodeClass,
-							new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("NamespaceArray")),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.DisplayName,
-							new DataValue(new Variant(new LocalizedText("NamespaceArray", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Description,
-							new DataValue(
-									new Variant(new LocalizedText("The list of namespace URIs used by the server.",
-											LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.WriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.UserWriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Value,
-							new DataValue(new Variant(new String[] { "http://opcfoundation.org/UA/", applicationURI }),
-									StatusCode.GOOD, null, serverTimeStamp));
-				}
-			});
-
-			onReadResultsMap.put(Identifiers.Server_ServerArray, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_ServerArray), StatusCode.GOOD,
-							null, serverTimeStamp));
-					put(Attributes.NodeClass,
-							new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("ServerArray")),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.DisplayName,
-							new DataValue(new Variant(new LocalizedText("ServerArray", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Description, new DataValue(new Variant(
-							new LocalizedText("The list of server URIs used by the server.", LocalizedText.NO_LOCALE)),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.WriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.UserWriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Value, new DataValue(new Variant(new String[] { applicationURI }), StatusCode.GOOD,
-							serverTimeStamp, serverTimeStamp));
-				}
-			});
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_BuildInfo_ProductName,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(new Variant("SampleNanoServer"), StatusCode.GOOD, null,
-									serverTimeStamp));
-						}
-					});
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_BuildInfo_ManufacturerName,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_BuildInfo_SoftwareVersion,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_BuildInfo_BuildDate,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value,
-									new DataValue(new Variant(DateTime.parseDateTime("2014-12-30T00:00:00Z")),
-											StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_StartTime, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.Value,
-							new DataValue(new Variant(serverTimeStamp), StatusCode.GOOD, null, serverTimeStamp));
-				}
-			});
+			if ("true".equalsIgnoreCase(GenericUtil.readServerPropertyConfigFile("offheap.values"))) {
+				// Keep primitive variable values in direct buffers outside of
+				// the Java heap
+				nodeStore = new NodeStore(64,
+						new OffHeapValueStore(GenericUtil.readServerPropertyConfigFile("offheap.capacity", 1000000)));
+			} else {
+				nodeStore = new NodeStore();
+			}
 
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_SecondsTillShutdown,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
+			Map<String, Object> nodeSetVariables = new HashMap<String, Object>();
+			nodeSetVariables.put("startTime", serverTimeStamp);
+			nodeSetVariables.put("applicationUri", application.getApplicationUri());
+			nodeSetVariables.put("maxNodesPerRead", maxNodesPerRead);
+			nodeSetVariables.put("maxNodesPerWrite", maxNodesPerWrite);
+			nodeSetVariables.put("maxNodesPerBrowse", maxNodesPerBrowse);
+			nodeSetVariables.put("maxBrowseContinuationPoints", continuationPoints.getMaxPerSession());
+			String nodeSetFile = GenericUtil.readServerPropertyConfigFile("nodeset.file");
+			boolean lazyNodeSet = !"false".equalsIgnoreCase(
+					GenericUtil.readServerPropertyConfigFile("nodeset.lazy"));
+			boolean validateNodeSet = "true".equalsIgnoreCase(
+					GenericUtil.readServerPropertyConfigFile("nodeset.validate"));
+			dataSourceExecutor = DataSourceCache
+					.newFetchExecutor(GenericUtil.readServerPropertyConfigFile("datasource.threads", 4));
+			int nodeCount = new NodeSetLoader(nodeSetVariables, serverTimeStamp, lazyNodeSet, validateNodeSet,
+					dataSourceExecutor).load(nodeSetFile != null ? nodeSetFile : "nodeset.json", nodeStore);
+			logger.info("Loaded {} nodes from nodeset (lazy: {})", nodeCount, lazyNodeSet);
+
+			// ServerStatus and its children are computed when they are read
+			serverStatus = new ServerStatusProvider(serverTimeStamp,
+					new BuildInfo(application.getApplicationUri(),
+							(String) storedValue(Identifiers.Server_ServerStatus_BuildInfo_ManufacturerName),
+							(String) storedValue(Identifiers.Server_ServerStatus_BuildInfo_ProductName),
+							(String) storedValue(Identifiers.Server_ServerStatus_BuildInfo_SoftwareVersion), null,
+							(DateTime) storedValue(Identifiers.Server_ServerStatus_BuildInfo_BuildDate)));
+			setValueProvider(Identifiers.Server_ServerStatus, serverStatus.serverStatus());
+			setValueProvider(Identifiers.Server_ServerStatus_CurrentTime, serverStatus.currentTime());
+			setValueProvider(Identifiers.Server_ServerStatus_State, serverStatus.state());
+			setValueProvider(Identifiers.Server_ServerStatus_StartTime, serverStatus.startTime());
+			setValueProvider(Identifiers.Server_ServerStatus_BuildInfo, serverStatus.buildInfo());
+
+			writePipeline = new WritePipeline(nodeStore, batchExecutor,
+					GenericUtil.readServerPropertyConfigFile("write.lockStripes", 256));
+			//////////////////////////////////////
+		}
 
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_ShutdownReason,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
+		/**
+		 * @return the stored value of a node's Value attribute or null
+		 */
+		private Object storedValue(NodeId nodeId) {
+			NodeAttributes attributes = nodeStore.get(nodeId);
+			DataValue value = attributes == null ? null : attributes.get(Attributes.Value);
+			if (value == null || value.getValue() == null) {
+				return null;
+			}
+			return value.getValue().getValue();
+		}
 
-			onReadResultsMap.put(Identifiers.Server_ServerStatus_BuildInfo, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.Value, new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-				}
-			});
+		private void setValueProvider(NodeId nodeId, ValueProvider provider) {
+			NodeAttributes attributes = nodeStore.get(nodeId);
+			if (attributes != null) {
+				attributes.setValueProvider(provider);
+			}
+		}
 
-			onReadResultsMap.put(Identifiers.Server_ServerCapabilities, new HashMap<UnsignedInteger, DataValue>() {
-				{
-					put(Attributes.NodeId, new DataValue(new Variant(Identifiers.Server_ServerCapabilities),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.NodeClass,
-							new DataValue(new Variant(NodeClass.Object), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("ServerCapabilities")),
-							StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.DisplayName,
-							new DataValue(new Variant(new LocalizedText("ServerCapabilities", LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.Description,
-							new DataValue(
-									new Variant(new LocalizedText("Describes the capabilities supported by the server.",
-											LocalizedText.NO_LOCALE)),
-									StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.WriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.UserWriteMask,
-							new DataValue(new Variant(new UnsignedInteger(0)), StatusCode.GOOD, null, serverTimeStamp));
-					put(Attributes.EventNotifier,
-							new DataValue(new Variant(new Byte((byte) 0)), StatusCode.GOOD, null, serverTimeStamp));
+		public void onActivateSession(
+				final EndpointServiceRequest<ActivateSessionRequest, ActivateSessionResponse> msgExchange)
+				throws ServiceFaultException {
+			// Reject floods of a client before any work is done
+			StatusCode admission = admissionController
+					.admitActivateSession(msgExchange.getChannel().getConnection().getRemoteAddress());
+			if (admission != null) {
+				throw new ServiceFaultException(ServiceFault.createServiceFault(admission.getValue()));
+			}
+			// The password is decrypted with RSA on the crypto pool
+			cryptoExecutor.execute(msgExchange, new CryptoExecutor.Task() {
+				public void run() throws ServiceFaultException {
+					activateSession(msgExchange);
 				}
 			});
-
-			onReadResultsMap.put(Identifiers.Server_ServerCapabilities_MaxBrowseContinuationPoints,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.NodeId,
-									new DataValue(
-											new Variant(
-													Identifiers.Server_ServerCapabilities_MaxBrowseContinuationPoints),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.NodeClass, new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD,
-									null, serverTimeStamp));
-							put(Attributes.BrowseName,
-									new DataValue(new Variant(new QualifiedName("MaxBrowseContinuationPoints")),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.DisplayName,
-									new DataValue(new Variant(
-											new LocalizedText("MaxBrowseContinuationPoints", LocalizedText.NO_LOCALE)),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Description,
-									new DataValue(
-											new Variant(new LocalizedText(
-													"The maximum number of continuation points for Browse operations per session.",
-													LocalizedText.NO_LOCALE)),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.WriteMask, new DataValue(new Variant(new UnsignedInteger(0)),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.UserWriteMask, new DataValue(new Variant(new UnsignedInteger(0)),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Value, new DataValue(new Variant(new UnsignedInteger(1)), StatusCode.GOOD,
-									null, serverTimeStamp));
-							put(Attributes.DataType, new DataValue(new Variant(Identifiers.UInt16), StatusCode.GOOD,
-									null, serverTimeStamp));
-							put(Attributes.ValueRank,
-									new DataValue(new Variant(-2), StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.ArrayDimensions,
-									new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.AccessLevel, new DataValue(new Variant(AccessLevel.CurrentRead),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.UserAccessLevel, new DataValue(new Variant(AccessLevel.CurrentRead),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.MinimumSamplingInterval,
-									new DataValue(new Variant(0.0), StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Historizing,
-									new DataValue(new Variant(false), StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-
-			onReadResultsMap.put(Identifiers.Server_ServerDiagnostics_EnabledFlag,
-					new HashMap<UnsignedInteger, DataValue>() {
-						{
-							put(Attributes.NodeId,
-									new DataValue(new Variant(Identifiers.Server_ServerDiagnostics_EnabledFlag),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.NodeClass, new DataValue(new Variant(NodeClass.Variable), StatusCode.GOOD,
-									null, serverTimeStamp));
-							put(Attributes.BrowseName, new DataValue(new Variant(new QualifiedName("EnabledFlag")),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.DisplayName,
-									new DataValue(
-											new Variant(new LocalizedText("EnabledFlag", LocalizedText.NO_LOCALE)),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Description,
-									new DataValue(
-											new Variant(
-													new LocalizedText("If TRUE the diagnostics collection is enabled.",
-															LocalizedText.NO_LOCALE)),
-											StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.WriteMask, new DataValue(new Variant(new UnsignedInteger(0)),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.UserWriteMask, new DataValue(new Variant(new UnsignedInteger(0)),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Value,
-									new DataValue(new Variant(false), StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.DataType, new DataValue(new Variant(Identifiers.Boolean), StatusCode.GOOD,
-									null, serverTimeStamp));
-							put(Attributes.ValueRank,
-									new DataValue(new Variant(-2), StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.ArrayDimensions,
-									new DataValue(null, StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.AccessLevel, new DataValue(new Variant(AccessLevel.CurrentRead),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.UserAccessLevel, new DataValue(new Variant(AccessLevel.CurrentRead),
-									StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.MinimumSamplingInterval,
-									new DataValue(new Variant(0.0), StatusCode.GOOD, null, serverTimeStamp));
-							put(Attributes.Historizing,
-									new DataValue(new Variant(false), StatusCode.GOOD, null, serverTimeStamp));
-						}
-					});
-
-			// *******************************************************************************
-			// Put all data type mappings in one HashMap for better readability
-			// and performance
-			// Only boolean supported at the moment
-			// *******************************************************************************
-			datatypeMap = new HashMap<NodeId, Class<?>>() {
-				{
-					put(Identifiers.Boolean, java.lang.Boolean.class);
-				}
-			};
-			//////////////////////////////////////
 		}
 
-		public void onActivateSession(
+		private void activateSession(
 				EndpointServiceRequest<ActivateSessionRequest, ActivateSessionResponse> msgExchange)
 				throws ServiceFaultException {
 
@@ -1228,8 +953,10 @@ public class RoverAServer {
 			// activeSessionEventParam.setSessionId(request.getRequestHeader().get);
 			RequestHeader requestHeader = request.getRequestHeader();
 			NodeId authenticationToken = requestHeader.getAuthenticationToken();
+			Session session = sessionRegistry.get(authenticationToken);
+			IEncodeable identity = null;
 
-			if (!sessions.contains(authenticationToken)) {
+			if (session == null) {
 				// This session is not valid
 				statusCode = new StatusCode(StatusCodes.Bad_SessionClosed);
 			}
@@ -1247,28 +974,21 @@ public class RoverAServer {
 					}
 				}
 
-				if (timeoutPeriods != null && authenticationToken != null
-						&& timeoutPeriods.get(authenticationToken) != null) {
-
-					Long timeToTimeout = timeoutPeriods.get(authenticationToken);
-
-					Long now = System.currentTimeMillis();
-
-					if (timeToTimeout < now) {
+				long now = System.currentTimeMillis();
+				if (session.isExpired(now)) {
+					// The session stays valid if another process has
+					// extended it
+					sessionRegistry.expire(session, now);
+					if (session.getState() == Session.State.CLOSED) {
 						statusCode = new StatusCode(StatusCodes.Bad_SessionClosed);
-						validAuthenticationTokens.remove(authenticationToken);
-						timeoutPeriods.remove(authenticationToken);
-
 					}
-				} else {
-					statusCode = new StatusCode(StatusCodes.Bad_SessionIdInvalid);
 				}
 			}
 			if (statusCode == null) {
 				try {
 
 					IEncodeable uit = request.getUserIdentityToken().decode(getEncoderContext());
-					userAuthorization.put(authenticationToken, uit);
+					identity = uit;
 
 					if (uit instanceof UserNameIdentityToken) {
 						UserNameIdentityToken userNameIdentityToken = (UserNameIdentityToken) uit;
@@ -1277,13 +997,8 @@ public class RoverAServer {
 						activeSessionEventParam.setUserName(userName);
 						String policyId = userNameIdentityToken.getPolicyId();
 						String encryptionAlgorithm = userNameIdentityToken.getEncryptionAlgorithm();
-						String passkey = GenericUtil.readServerPropertyConfigFile(userName);
 						if (userName == null) {
 							statusCode = new StatusCode(StatusCodes.Bad_IdentityTokenInvalid);
-						} else if (userName.equals("username")) {
-							statusCode = new StatusCode(StatusCodes.Bad_UserAccessDenied);
-						} else if (GenericUtil.readServerPropertyConfigFile(userName) == null) {
-							statusCode = new StatusCode(StatusCodes.Bad_IdentityTokenRejected);
 						}
 
 						// Checking that policy id and encryption algorithm are
@@ -1294,8 +1009,10 @@ public class RoverAServer {
 								|| !encryptionAlgorithm.equals("http://www.w3.org/2001/04/xmlenc#rsa-1_5")) {
 							statusCode = new StatusCode(StatusCodes.Bad_IdentityTokenInvalid);
 						} else if (statusCode == null) {
-							// user is user1 or user2, decrypt the password and
-							// check password correctness
+							// Decrypt the password and check it. Unknown users
+							// are checked against a dummy entry and get the
+							// same status as a wrong password, so neither
+							// timing nor status reveals which users exist
 
 							PrivateKey pk = application.getApplicationInstanceCertificate().privateKey.getPrivateKey();
 							ByteString dataToDecrypt = userNameIdentityToken.getPassword();
@@ -1311,13 +1028,12 @@ public class RoverAServer {
 							// passwords that are 8
 							// characters...
 							String plaintextPassword = new String(output, 1, count).trim();
-							activeSessionEventParam.setPassword(plaintextPassword);
+							// The password is never written to the audit log.
 							// These usernames and passwords are defined in CTT
-							// GET UserName and Password from serverConfig FIle.
-
-							// settings
+							// The password hashes are kept in the
+							// CredentialStore
 
-							if ((!plaintextPassword.equals(passkey))) {
+							if (!credentialStore.verify(userName, plaintextPassword)) {
 								statusCode = new StatusCode(StatusCodes.Bad_UserAccessDenied);
 							}
 
@@ -1330,18 +1046,19 @@ public class RoverAServer {
 				}
 
 			}
-			response.setServerNonce(CryptoUtil.createNonce(32));
+			response.setServerNonce(nonceSource.nextByteString(32));
 
 			if (statusCode == null) {
 				statusCode = StatusCode.GOOD;
-				validAuthenticationTokens.add(authenticationToken);
+				sessionRegistry.activate(session, identity);
+				sessionRegistry.touch(session, System.currentTimeMillis());
 
 			}
 			ResponseHeader h = new ResponseHeader(DateTime.currentTime(), requestHeader.getRequestHandle(), statusCode,
 					null, getApplication().getLocaleIds(), null);
 			response.setResponseHeader(h);
 
-			if (GenericUtil.enableAuditing("onActivateSession")) {
+			if (auditPolicy.isAudited(ServiceOperation.ACTIVATE_SESSION)) {
 
 				InetSocketAddress proxyAddress = (InetSocketAddress) msgExchange.getChannel().getConnection()
 						.getRemoteAddress();
@@ -1382,29 +1099,40 @@ public class RoverAServer {
 
 			ResponseHeader h = checkRequestHeader(req.getRequestHeader());
 
-			// take authentication token out of valid tokens
-			validAuthenticationTokens.remove(req.getRequestHeader().getAuthenticationToken());
-			sessions.remove(req.getRequestHeader().getAuthenticationToken());
-			userAuthorization.remove(req.getRequestHeader().getAuthenticationToken());
-			// Set continuation point to null, this also means that more than
-			// one concurrent sessions cannot use continuation points
-			continuationPoint = null;
+			// take authentication token out of valid tokens, this also
+			// releases the continuation points of the session
+			sessionRegistry.remove(req.getRequestHeader().getAuthenticationToken());
 
 			res.setResponseHeader(h);
 
 			msgExchange.sendResponse(res);
 		}
 
-		public void onCreateSession(EndpointServiceRequest<CreateSessionRequest, CreateSessionResponse> msgExchange)
+		public void onCreateSession(
+				final EndpointServiceRequest<CreateSessionRequest, CreateSessionResponse> msgExchange)
+				throws ServiceFaultException {
+			// Reject floods of a client and new sessions above the session
+			// limit before any session state is allocated
+			StatusCode admission = admissionController
+					.admitCreateSession(msgExchange.getChannel().getConnection().getRemoteAddress());
+			if (admission != null) {
+				throw new ServiceFaultException(ServiceFault.createServiceFault(admission.getValue()));
+			}
+			// The server signature is created with RSA on the crypto pool
+			cryptoExecutor.execute(msgExchange, new CryptoExecutor.Task() {
+				public void run() throws ServiceFaultException {
+					createSession(msgExchange);
+				}
+			});
+		}
+
+		private void createSession(EndpointServiceRequest<CreateSessionRequest, CreateSessionResponse> msgExchange)
 				throws ServiceFaultException {
 			CreateSessionRequest request = msgExchange.getRequest();
 			CreateSessionResponse response = new CreateSessionResponse();
 			StatusCode statusCode = null;
-			byte[] token = new byte[32];
-			byte[] nonce = new byte[32];
-			Random r = new Random();
-			r.nextBytes(nonce);
-			r.nextBytes(token);
+			byte[] token = nonceSource.nextBytes(32);
+			byte[] nonce = nonceSource.nextBytes(32);
 
 			// Check client nonce
 			ByteString clientNonce = request.getClientNonce();
@@ -1430,6 +1158,7 @@ public class RoverAServer {
 				}
 			}
 
+			NodeId sessionId = new NodeId(0, "Session-" + UUID.randomUUID());
 			if (statusCode == null) {
 
 				EndpointConfiguration endpointConfiguration = EndpointConfiguration.defaults();
@@ -1447,22 +1176,20 @@ public class RoverAServer {
 				response.setAuthenticationToken(tokenId);
 				// Put authentication to memory in order to check validity of
 				// incoming authentication tokens
-				sessions.add(tokenId);
-				Long time = System.currentTimeMillis();
-				timeoutPeriods.put(tokenId, time + timeout.longValue());
+				sessionRegistry.create(tokenId, sessionId, timeout.longValue());
 			}
 
-			KeyPair cert = getApplication().getApplicationInstanceCertificates()[0];
-			response.setServerCertificate(ByteString.valueOf(cert.getCertificate().getEncoded()));
-			response.setServerEndpoints(this.getEndpointDescriptions());
+			KeyPair cert = sessionSetupCache.getKeyPair();
+			response.setServerCertificate(sessionSetupCache.getEncodedCertificate());
+			response.setServerEndpoints(sessionSetupCache.getEndpointDescriptions());
 			response.setServerNonce(ByteString.valueOf(nonce));
 
 			SecurityPolicy securityPolicy = msgExchange.getChannel().getSecurityPolicy();
 			response.setServerSignature(getServerSignature(clientCertificate, clientNonce, securityPolicy,
 					cert.getPrivateKey().getPrivateKey()));
 
-			response.setServerSoftwareCertificates(getApplication().getSoftwareCertificates());
-			response.setSessionId(new NodeId(0, "Session-" + UUID.randomUUID()));
+			response.setServerSoftwareCertificates(sessionSetupCache.getSoftwareCertificates());
+			response.setSessionId(sessionId);
 
 			if (statusCode == null) {
 				statusCode = StatusCode.GOOD;
@@ -1473,7 +1200,7 @@ public class RoverAServer {
 					statusCode, null, getApplication().getLocaleIds(), null);
 			response.setResponseHeader(h);
 
-			if (GenericUtil.enableAuditing("onCreateSession")) {
+			if (auditPolicy.isAudited(ServiceOperation.CREATE_SESSION)) {
 
 				CreateSessionEventParam createSessionObject = EventLogUtil.populateCreateSessionObject(
 						response.getSessionId(), response.getAuthenticationToken(), request, response);
@@ -1502,20 +1229,7 @@ public class RoverAServer {
 		private SignatureData getServerSignature(ByteString clientCertificate, ByteString clientNonce,
 				SecurityPolicy securityPolicy, final RSAPrivateKey privateKey) throws ServiceFaultException {
 			if (clientCertificate != null) {
-				ByteArrayOutputStream s = new ByteArrayOutputStream();
-				try {
-					s.write(clientCertificate.getValue());
-				} catch (IOException e) {
-					throw new ServiceFaultException(
-							ServiceFault.createServiceFault(StatusCodes.Bad_SecurityChecksFailed));
-				} catch (Exception e) {
-					throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NonceInvalid));
-				}
-				try {
-					s.write(clientNonce.getValue());
-				} catch (IOException e) {
-					throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NonceInvalid));
-				} catch (Exception e) {
+				if (clientCertificate.getValue() == null || clientNonce == null || clientNonce.getValue() == null) {
 					throw new ServiceFaultException(ServiceFault.createServiceFault(StatusCodes.Bad_NonceInvalid));
 				}
 				try {
@@ -1523,8 +1237,10 @@ public class RoverAServer {
 					if (algorithm == null) {
 						algorithm = SecurityAlgorithm.RsaSha1;
 					}
-					return new SignatureData(algorithm.getUri(), ByteString
-							.valueOf(CryptoUtil.getCryptoProvider().signAsymm(privateKey, algorithm, s.toByteArray())));
+					// Sign clientCertificate + clientNonce without copying
+					// them into one buffer
+					return new SignatureData(algorithm.getUri(), ByteString.valueOf(signatureEngines.sign(privateKey,
+							algorithm, clientCertificate.getValue(), clientNonce.getValue())));
 				} catch (ServiceResultException e) {
 					throw new ServiceFaultException(e);
 				}
@@ -1595,15 +1311,34 @@ public class RoverAServer {
 		ResponseHeader responseHeader = new ResponseHeader(DateTime.currentTime(), requestHeader.getRequestHandle(),
 				StatusCode.GOOD, null, null, null);
 
-		if (NodeId.isNull(requestHeader.getAuthenticationToken())
-				|| !validAuthenticationTokens.contains(requestHeader.getAuthenticationToken())) {
+		Session session = NodeId.isNull(requestHeader.getAuthenticationToken()) ? null
+				: sessionRegistry.get(requestHeader.getAuthenticationToken());
+		long now = System.currentTimeMillis();
+		if (session != null && session.isExpired(now)) {
+			// Expired, but not removed by the SessionReaper yet. The session
+			// stays valid if another process has extended it.
+			sessionRegistry.expire(session, now);
+			if (session.getState() == Session.State.CLOSED) {
+				session = null;
+			}
+		}
+		if (session != null && !session.isActivated()) {
+			// The cached copy may not show an activation on another process
+			// yet
+			sessionRegistry.refresh(session);
+			if (session.getState() == Session.State.CLOSED) {
+				session = null;
+			}
+		}
+		if (session == null || !session.isActivated()) {
 			// AuthenticationToken was null or invalid
-			if (sessions.contains(requestHeader.getAuthenticationToken())) {
+			if (session != null) {
 				// Session is created but not activated
 				responseHeader = new ResponseHeader(DateTime.currentTime(), requestHeader.getRequestHandle(),
 						new StatusCode(StatusCodes.Bad_SessionNotActivated), null, null, null);
-				// This is an error condition: close this session
-				sessions.remove(requestHeader.getAuthenticationToken());
+				// This is an error condition: close this session, if it has
+				// been created by this process
+				sessionRegistry.discard(session);
 			} else {
 				responseHeader = new ResponseHeader(DateTime.currentTime(), requestHeader.getRequestHandle(),
 						new StatusCode(StatusCodes.Bad_SessionIdInvalid), null, null, null);
@@ -1615,6 +1350,9 @@ public class RoverAServer {
 			responseHeader = new ResponseHeader(DateTime.currentTime(), requestHeader.getRequestHandle(),
 					new StatusCode(StatusCodes.Bad_InvalidTimestamp), null, null, null);
 
+		} else {
+			// Valid request: keep the session alive
+			sessionRegistry.touch(session, now);
 		}
 		return responseHeader;
 	}
@@ -1686,6 +1424,7 @@ public class RoverAServer {
 		roverServer.addServiceHandler(new RoverNodemanagementServiceHandler());
 
 		CryptoUtil.setCryptoProvider(new BcCryptoProvider());
+		serverStatus.setState(ServerState.Running);
 
 		/**
 		 * read from continentCountryMap.json file during initial Load
@@ -1721,7 +1460,17 @@ public class RoverAServer {
 		}
 
 		scan.close();
+		serverStatus.setState(ServerState.Shutdown);
+		sessionReaper.shutdown();
+		resourceWatcher.close();
+		cryptoExecutor.shutdown();
+		sessionRegistry.close();
 		roverServer.getApplication().close();
+		// After the endpoints are closed, no request is in progress that
+		// uses the batch executor or writes to the event log
+		batchExecutor.shutdown();
+		dataSourceExecutor.shutdown();
+		EventLogUtil.closeServerEventLog();
 		// ////////////////////////////////////
 
 	}
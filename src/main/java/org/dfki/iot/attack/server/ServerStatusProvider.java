@@ -0,0 +1,131 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.BuildInfo;
+import org.opcfoundation.ua.core.ServerState;
+import org.opcfoundation.ua.core.ServerStatusDataType;
+
+/**
+ * Live values of the Server_ServerStatus variables: the structure itself,
+ * CurrentTime, State, StartTime and BuildInfo.
+ *
+ * Each value is built at most once per millisecond and then shared by all
+ * readers in that millisecond, so polling these nodes costs the same as
+ * reading a stored value.
+ */
+class ServerStatusProvider {
+
+	private final DateTime startTime;
+	private final BuildInfo buildInfo;
+	private volatile ServerState state = ServerState.Unknown;
+
+	private final ValueProvider serverStatus = new TickCachedValue() {
+		@Override
+		protected Variant compute(DateTime now) {
+			return new Variant(new ServerStatusDataType(startTime, now, state, buildInfo, null, null));
+		}
+	};
+
+	private final ValueProvider currentTime = new TickCachedValue() {
+		@Override
+		protected Variant compute(DateTime now) {
+			return new Variant(now);
+		}
+	};
+
+	private final ValueProvider stateValue = new TickCachedValue() {
+		@Override
+		protected Variant compute(DateTime now) {
+			return new Variant(state);
+		}
+	};
+
+	private final ValueProvider startTimeValue;
+	private final ValueProvider buildInfoValue;
+
+	/**
+	 * @param startTime
+	 *            the time the server was started
+	 * @param buildInfo
+	 *            build information of the server
+	 */
+	public ServerStatusProvider(final DateTime startTime, final BuildInfo buildInfo) {
+		this.startTime = startTime;
+		this.buildInfo = buildInfo;
+		this.startTimeValue = new TickCachedValue() {
+			@Override
+			protected Variant compute(DateTime now) {
+				return new Variant(startTime);
+			}
+		};
+		this.buildInfoValue = new TickCachedValue() {
+			@Override
+			protected Variant compute(DateTime now) {
+				return new Variant(buildInfo);
+			}
+		};
+	}
+
+	public ServerState getState() {
+		return state;
+	}
+
+	public void setState(ServerState state) {
+		this.state = state;
+	}
+
+	/**
+	 * @return the time since the server was started in milliseconds
+	 */
+	public long getUptime() {
+		return System.currentTimeMillis() - startTime.getTimeInMillis();
+	}
+
+	public ValueProvider serverStatus() {
+		return serverStatus;
+	}
+
+	public ValueProvider currentTime() {
+		return currentTime;
+	}
+
+	public ValueProvider state() {
+		return stateValue;
+	}
+
+	public ValueProvider startTime() {
+		return startTimeValue;
+	}
+
+	public ValueProvider buildInfo() {
+		return buildInfoValue;
+	}
+
+	/**
+	 * Value that is computed again when the clock has moved to the next
+	 * millisecond. The server timestamp of the cached DataValue is the
+	 * millisecond it was computed in.
+	 */
+	private abstract static class TickCachedValue implements ValueProvider {
+
+		private volatile DataValue cached;
+
+		protected abstract Variant compute(DateTime now);
+
+		public DataValue getValue() {
+			long millis = System.currentTimeMillis();
+			DataValue value = cached;
+			if (value != null && value.getServerTimestamp().getTimeInMillis() == millis) {
+				return value;
+			}
+			DateTime now = DateTime.fromMillis(millis);
+			value = new DataValue(compute(now), StatusCode.GOOD, now, now);
+			cached = value;
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.dfki.iot.attack.server;
+
+/**
+ * Service operations of the server that can be audited, by the handler name
+ * used in the monitor.operations property.
+ */
+enum ServiceOperation {
+
+	FIND_SERVERS("onFindServers"),
+	ADD_NODES("onAddNodes"),
+	READ("onRead"),
+	WRITE("onWrite"),
+	ACTIVATE_SESSION("onActivateSession"),
+	CREATE_SESSION("onCreateSession");
+
+	private static final ServiceOperation[] VALUES = values();
+
+	private final String operationName;
+
+	private ServiceOperation(String operationName) {
+		this.operationName = operationName;
+	}
+
+	public String getOperationName() {
+		return operationName;
+	}
+
+	/**
+	 * @return the operation with exactly this name or null
+	 */
+	public static ServiceOperation forOperationName(String operationName) {
+		for (ServiceOperation operation : VALUES) {
+			if (operation.operationName.equals(operationName)) {
+				return operation;
+			}
+		}
+		return null;
+	}
+
+}
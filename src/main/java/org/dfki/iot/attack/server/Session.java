@@ -0,0 +1,108 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.encoding.IEncodeable;
+
+/**
+ * State of one client session, kept by the {@link SessionRegistry} under the
+ * authentication token of the session.
+ */
+class Session {
+
+	enum State {
+		/** Created with CreateSession, not activated yet. */
+		CREATED,
+		/** Activated with ActivateSession, service calls are accepted. */
+		ACTIVATED,
+		/** Closed by the client or removed by the server. */
+		CLOSED
+	}
+
+	private final NodeId authenticationToken;
+	private final NodeId sessionId;
+	private final long timeout;
+	private volatile State state = State.CREATED;
+	private volatile IEncodeable identity;
+	private volatile long deadline;
+
+	/**
+	 * @param timeout
+	 *            the revised session timeout in milliseconds
+	 */
+	public Session(NodeId authenticationToken, NodeId sessionId, long timeout) {
+		this.authenticationToken = authenticationToken;
+		this.sessionId = sessionId;
+		this.timeout = timeout;
+		this.deadline = System.currentTimeMillis() + timeout;
+	}
+
+	public NodeId getAuthenticationToken() {
+		return authenticationToken;
+	}
+
+	public NodeId getSessionId() {
+		return sessionId;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public boolean isActivated() {
+		return state == State.ACTIVATED;
+	}
+
+	/**
+	 * @return the user identity token the session was activated with or null
+	 */
+	public IEncodeable getIdentity() {
+		return identity;
+	}
+
+	/**
+	 * @return the session timeout in milliseconds
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return the time in milliseconds after which the session expires
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public boolean isExpired(long now) {
+		return now > deadline;
+	}
+
+	/**
+	 * Marks the session as activated by the given user.
+	 */
+	void activate(IEncodeable identity) {
+		this.identity = identity;
+		this.state = State.ACTIVATED;
+	}
+
+	void close() {
+		this.state = State.CLOSED;
+	}
+
+	/**
+	 * Moves the deadline to now plus the session timeout.
+	 */
+	void touch(long now) {
+		this.deadline = now + timeout;
+	}
+
+	/**
+	 * Takes over the state of the session replicated by another process.
+	 */
+	void restore(State state, IEncodeable identity, long deadline) {
+		this.identity = identity;
+		this.state = state;
+		this.deadline = deadline;
+	}
+
+}
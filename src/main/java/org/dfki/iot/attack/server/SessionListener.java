@@ -0,0 +1,16 @@
+package org.dfki.iot.attack.server;
+
+/**
+ * Notified by the {@link SessionRegistry} when sessions are added and
+ * removed.
+ */
+interface SessionListener {
+
+	void sessionCreated(Session session);
+
+	/**
+	 * Called when a session is closed by the client, rejected or expired.
+	 */
+	void sessionClosed(Session session);
+
+}
@@ -0,0 +1,130 @@
+package org.dfki.iot.attack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes sessions from the {@link SessionRegistry} when their deadline has
+ * passed.
+ *
+ * The sessions are kept in a hashed timing wheel: a ring of buckets, one per
+ * tick, and a session is put into the bucket of the tick its deadline falls
+ * into. A background thread advances the wheel once per tick and only looks
+ * at the sessions of the current bucket. Requests that move the deadline of a
+ * session back do not touch the wheel; when the bucket is reached the
+ * session's current deadline is checked and the session is put into the
+ * bucket of its new deadline instead of being removed. Deadlines further away
+ * than one turn of the wheel are handled the same way.
+ */
+class SessionReaper implements SessionListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(SessionReaper.class);
+
+	private final SessionRegistry registry;
+	private final long tickMillis;
+	private final Queue<Session>[] wheel;
+	private final ScheduledExecutorService scheduler;
+	private volatile long lastTick;
+
+	/**
+	 * @param tickMillis
+	 *            length of one tick. Sessions are removed at most one tick
+	 *            after their deadline.
+	 * @param wheelSize
+	 *            number of buckets, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public SessionReaper(SessionRegistry registry, long tickMillis, int wheelSize) {
+		this.registry = registry;
+		this.tickMillis = Math.max(1, tickMillis);
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.wheel = new Queue[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<Session>();
+		}
+		this.lastTick = System.currentTimeMillis() / this.tickMillis;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "session-reaper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts the background thread and registers with the registry.
+	 */
+	public void start() {
+		registry.addListener(this);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					advance(System.currentTimeMillis());
+				} catch (RuntimeException e) {
+					logger.error("Session expiry failed", e);
+				}
+			}
+		}, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		registry.removeListener(this);
+		scheduler.shutdown();
+	}
+
+	public void sessionCreated(Session session) {
+		schedule(session);
+	}
+
+	public void sessionClosed(Session session) {
+		// Closed sessions are dropped when their bucket is reached
+	}
+
+	private void schedule(Session session) {
+		// A deadline in a tick that has already been processed is checked
+		// with the next tick
+		long tick = Math.max(session.getDeadline() / tickMillis, lastTick + 1);
+		wheel[(int) (tick & (wheel.length - 1))].offer(session);
+	}
+
+	/**
+	 * Processes all ticks up to now. Only called by the reaper thread.
+	 */
+	void advance(long now) {
+		long currentTick = now / tickMillis;
+		List<Session> due = new ArrayList<Session>();
+		while (lastTick < currentTick) {
+			lastTick++;
+			Queue<Session> bucket = wheel[(int) (lastTick & (wheel.length - 1))];
+			// Drain first, sessions that are scheduled again may land in the
+			// same bucket
+			Session session;
+			while ((session = bucket.poll()) != null) {
+				due.add(session);
+			}
+			for (Session candidate : due) {
+				if (candidate.getState() == Session.State.CLOSED) {
+					continue;
+				}
+				if (candidate.isExpired(now) && registry.expire(candidate, now)) {
+					logger.info("Session {} expired", candidate.getSessionId());
+				} else if (candidate.getState() != Session.State.CLOSED) {
+					// Still in use, possibly through another process
+					schedule(candidate);
+				}
+			}
+			due.clear();
+		}
+	}
+
+}
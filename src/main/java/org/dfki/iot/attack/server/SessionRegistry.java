@@ -0,0 +1,187 @@
+package org.dfki.iot.attack.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.encoding.IEncodeable;
+
+/**
+ * All sessions of the server by authentication token. Lookups are safe to
+ * call from any service handler thread. Registered {@link SessionListener}s
+ * are notified when sessions are added or removed, also when this is done by
+ * another process sharing the {@link SessionStore}.
+ */
+class SessionRegistry {
+
+	private final SessionStore sessions;
+	private final List<SessionListener> listeners = new CopyOnWriteArrayList<SessionListener>();
+
+	public SessionRegistry() {
+		this(new InProcessSessionStore());
+	}
+
+	public SessionRegistry(SessionStore sessions) {
+		this.sessions = sessions;
+		sessions.setListener(new SessionListener() {
+			public void sessionCreated(Session session) {
+				for (SessionListener listener : listeners) {
+					listener.sessionCreated(session);
+				}
+			}
+
+			public void sessionClosed(Session session) {
+				closed(session);
+			}
+		});
+	}
+
+	public void addListener(SessionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(SessionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Registers a new session that is not activated yet.
+	 *
+	 * @param timeout
+	 *            the revised session timeout in milliseconds
+	 */
+	public Session create(NodeId authenticationToken, NodeId sessionId, long timeout) {
+		Session session = new Session(authenticationToken, sessionId, timeout);
+		Session replaced = sessions.put(session);
+		if (replaced != null) {
+			closed(replaced);
+		}
+		for (SessionListener listener : listeners) {
+			listener.sessionCreated(session);
+		}
+		return session;
+	}
+
+	/**
+	 * @return the session of the authentication token or null
+	 */
+	public Session get(NodeId authenticationToken) {
+		if (authenticationToken == null) {
+			return null;
+		}
+		return sessions.get(authenticationToken);
+	}
+
+	/**
+	 * @return the user identity of an activated session or null
+	 */
+	public IEncodeable getIdentity(NodeId authenticationToken) {
+		Session session = get(authenticationToken);
+		return session == null || !session.isActivated() ? null : session.getIdentity();
+	}
+
+	/**
+	 * Marks the session as activated by the given user.
+	 */
+	public void activate(Session session, IEncodeable identity) {
+		session.activate(identity);
+		sessions.update(session);
+	}
+
+	/**
+	 * Moves the deadline of the session to now plus its timeout.
+	 */
+	public void touch(Session session, long now) {
+		session.touch(now);
+		sessions.update(session);
+	}
+
+	/**
+	 * Removes the session if its deadline has passed, taking requests
+	 * handled by other processes into account.
+	 *
+	 * @return true if the session has been removed
+	 */
+	public boolean expire(Session session, long now) {
+		if (!sessions.expire(session, now)) {
+			return false;
+		}
+		closed(session);
+		return true;
+	}
+
+	/**
+	 * Removes and closes a session.
+	 *
+	 * @return the removed session or null if the token was unknown
+	 */
+	public Session remove(NodeId authenticationToken) {
+		if (authenticationToken == null) {
+			return null;
+		}
+		Session session = sessions.remove(authenticationToken);
+		if (session != null) {
+			closed(session);
+		}
+		return session;
+	}
+
+	/**
+	 * Removes and closes the session if it is still registered.
+	 *
+	 * @return false if the session has already been removed
+	 */
+	public boolean remove(Session session) {
+		if (!sessions.remove(session)) {
+			return false;
+		}
+		closed(session);
+		return true;
+	}
+
+	/**
+	 * Removes and closes a session that a client uses in an invalid way, if
+	 * this process may remove it, see {@link SessionStore#discard(Session)}.
+	 *
+	 * @return false if the session has not been removed
+	 */
+	public boolean discard(Session session) {
+		if (!sessions.discard(session)) {
+			return false;
+		}
+		closed(session);
+		return true;
+	}
+
+	/**
+	 * Loads changes of the session made by other processes into it. The
+	 * session is closed if another process has removed it.
+	 */
+	public void refresh(Session session) {
+		sessions.refresh(session);
+	}
+
+	/**
+	 * @return the sessions known to this process
+	 */
+	public Collection<Session> getSessions() {
+		return sessions.getSessions();
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public void close() {
+		sessions.close();
+	}
+
+	private void closed(Session session) {
+		session.close();
+		for (SessionListener listener : listeners) {
+			listener.sessionClosed(session);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.application.Server;
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.core.EndpointDescription;
+import org.opcfoundation.ua.core.SignedSoftwareCertificate;
+import org.opcfoundation.ua.transport.security.KeyPair;
+
+/**
+ * The parts of a CreateSession response that are the same for every session:
+ * the encoded server certificate, the endpoint descriptions and the software
+ * certificates.
+ *
+ * They are built once and built again when the application instance
+ * certificate is replaced, the number of endpoints changes or
+ * {@link #invalidate()} is called.
+ */
+class SessionSetupCache {
+
+	private static class Snapshot {
+		final KeyPair keyPair;
+		final int endpointCount;
+		final ByteString encodedCertificate;
+		final EndpointDescription[] endpointDescriptions;
+		final SignedSoftwareCertificate[] softwareCertificates;
+
+		Snapshot(KeyPair keyPair, int endpointCount, ByteString encodedCertificate,
+				EndpointDescription[] endpointDescriptions, SignedSoftwareCertificate[] softwareCertificates) {
+			this.keyPair = keyPair;
+			this.endpointCount = endpointCount;
+			this.encodedCertificate = encodedCertificate;
+			this.endpointDescriptions = endpointDescriptions;
+			this.softwareCertificates = softwareCertificates;
+		}
+	}
+
+	private final Server server;
+	private volatile Snapshot snapshot;
+
+	public SessionSetupCache(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 * @return the application instance certificate used to sign
+	 */
+	public KeyPair getKeyPair() {
+		return current().keyPair;
+	}
+
+	public ByteString getEncodedCertificate() {
+		return current().encodedCertificate;
+	}
+
+	public EndpointDescription[] getEndpointDescriptions() {
+		return current().endpointDescriptions;
+	}
+
+	public SignedSoftwareCertificate[] getSoftwareCertificates() {
+		return current().softwareCertificates;
+	}
+
+	/**
+	 * Builds all parts again with the next request, e.g. after endpoints have
+	 * been bound.
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	private Snapshot current() {
+		KeyPair keyPair = server.getApplication().getApplicationInstanceCertificates()[0];
+		int endpointCount = server.getEndpoints().length;
+		Snapshot current = snapshot;
+		if (current != null && current.keyPair == keyPair && current.endpointCount == endpointCount) {
+			return current;
+		}
+		// Concurrent rebuilds produce equal snapshots, the last one is kept
+		current = new Snapshot(keyPair, endpointCount, ByteString.valueOf(keyPair.getCertificate().getEncoded()),
+				server.getEndpointDescriptions(), server.getApplication().getSoftwareCertificates());
+		snapshot = current;
+		return current;
+	}
+
+}
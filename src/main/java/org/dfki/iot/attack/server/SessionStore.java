@@ -0,0 +1,79 @@
+package org.dfki.iot.attack.server;
+
+import java.util.Collection;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+
+/**
+ * Storage of the sessions behind the {@link SessionRegistry}, by
+ * authentication token. A store may share its sessions with other server
+ * processes; sessions that are added or removed by another process are
+ * reported to the listener.
+ */
+interface SessionStore {
+
+	/**
+	 * Receives the sessions added or removed by other processes.
+	 */
+	void setListener(SessionListener listener);
+
+	/**
+	 * @return the session that had the same authentication token or null
+	 */
+	Session put(Session session);
+
+	/**
+	 * @return the current state of the session or null if it is unknown
+	 */
+	Session get(NodeId authenticationToken);
+
+	/**
+	 * @return the removed session or null if it was unknown
+	 */
+	Session remove(NodeId authenticationToken);
+
+	/**
+	 * Removes the session if it is still stored.
+	 *
+	 * @return false if the session has already been removed
+	 */
+	boolean remove(Session session);
+
+	/**
+	 * Removes a session that a client uses in an invalid way. A store shared
+	 * with other processes only removes the sessions this process has
+	 * created, the others stay for the process that owns them.
+	 *
+	 * @return false if the session has not been removed
+	 */
+	boolean discard(Session session);
+
+	/**
+	 * Removes the session if its deadline has passed, taking requests handled
+	 * by other processes into account.
+	 *
+	 * @return false if the session is still valid or has already been
+	 *         removed
+	 */
+	boolean expire(Session session, long now);
+
+	/**
+	 * Publishes a change of the state, identity or deadline of the session.
+	 */
+	void update(Session session);
+
+	/**
+	 * Loads changes of the session made by other processes into it.
+	 */
+	void refresh(Session session);
+
+	/**
+	 * @return the sessions known to this process
+	 */
+	Collection<Session> getSessions();
+
+	int size();
+
+	void close();
+
+}
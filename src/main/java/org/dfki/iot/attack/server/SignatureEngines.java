@@ -0,0 +1,87 @@
+package org.dfki.iot.attack.server;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.transport.security.SecurityAlgorithm;
+import org.opcfoundation.ua.utils.CryptoUtil;
+
+/**
+ * Per-thread {@link Signature} engines that stay initialized with the server
+ * private key, so a signature costs only the RSA operation itself. An engine
+ * is initialized again when the key changes. Algorithms without a JCA name
+ * are signed through the crypto provider of the stack.
+ */
+class SignatureEngines {
+
+	private static class Engine {
+		final Signature signature;
+		PrivateKey key;
+
+		Engine(Signature signature) {
+			this.signature = signature;
+		}
+	}
+
+	private final ThreadLocal<Map<SecurityAlgorithm, Engine>> engines = new ThreadLocal<Map<SecurityAlgorithm, Engine>>() {
+		@Override
+		protected Map<SecurityAlgorithm, Engine> initialValue() {
+			return new HashMap<SecurityAlgorithm, Engine>();
+		}
+	};
+
+	/**
+	 * Signs the concatenation of the parts.
+	 */
+	public byte[] sign(PrivateKey key, SecurityAlgorithm algorithm, byte[]... parts) throws ServiceResultException {
+		String standardName = algorithm.getStandardName();
+		if (standardName == null) {
+			return CryptoUtil.getCryptoProvider().signAsymm(key, algorithm, concat(parts));
+		}
+		try {
+			Map<SecurityAlgorithm, Engine> threadEngines = engines.get();
+			Engine engine = threadEngines.get(algorithm);
+			if (engine == null) {
+				engine = new Engine(Signature.getInstance(standardName));
+				threadEngines.put(algorithm, engine);
+			}
+			if (engine.key != key) {
+				engine.signature.initSign(key);
+				engine.key = key;
+			}
+			for (byte[] part : parts) {
+				engine.signature.update(part);
+			}
+			// sign() resets the engine for the next signature with the same
+			// key
+			return engine.signature.sign();
+		} catch (GeneralSecurityException e) {
+			// Initialize again, the engine may hold a partial input
+			Engine engine = engines.get().get(algorithm);
+			if (engine != null) {
+				engine.key = null;
+			}
+			throw new ServiceResultException(StatusCodes.Bad_SecurityChecksFailed, e);
+		}
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts) {
+			length += part.length;
+		}
+		byte[] data = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, data, offset, part.length);
+			offset += part.length;
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+/**
+ * {@link DataSource} that simulates a slow temperature sensor: every fetch
+ * takes {@link #LATENCY_MILLIS} and returns a Double that swings around 20
+ * degrees with a period of ten minutes. Each node gets its own phase, so
+ * several nodes can be bound to this class.
+ */
+public class SimulatedSensorDataSource implements DataSource {
+
+	/** Time a fetch takes, as if the value was read from a field device. */
+	static final long LATENCY_MILLIS = 50;
+
+	private static final double PERIOD_MILLIS = 10 * 60 * 1000;
+
+	@Override
+	public DataValue fetch(NodeId nodeId) throws Exception {
+		Thread.sleep(LATENCY_MILLIS);
+		long now = System.currentTimeMillis();
+		double phase = (nodeId.hashCode() & 0xFFFF) / (double) 0xFFFF;
+		double temperature = 20 + 5 * Math.sin(2 * Math.PI * (now / PERIOD_MILLIS + phase));
+		return new DataValue(new Variant(Math.round(temperature * 100) / 100.0), StatusCode.GOOD,
+				DateTime.currentTime(), null);
+	}
+
+}
@@ -0,0 +1,18 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+
+/**
+ * Computes the Value of a variable node when it is read, see
+ * {@link NodeAttributes#setValueProvider(ValueProvider)}. Unlike a
+ * {@link DataSource} a provider is cheap to call and is not cached by maxAge.
+ */
+interface ValueProvider {
+
+	/**
+	 * @return the current value with its timestamps. The returned DataValue
+	 *         may be shared between readers and must not be modified.
+	 */
+	DataValue getValue();
+
+}
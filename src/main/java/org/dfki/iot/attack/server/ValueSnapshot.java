@@ -0,0 +1,109 @@
+package org.dfki.iot.attack.server;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+
+/**
+ * Helpers for the immutable attribute values kept in {@link NodeAttributes}.
+ *
+ * A DataValue stored in the NodeStore is a snapshot: it is handed out to every
+ * reader as is and must never be modified. Writers build a new snapshot with
+ * {@link #withValue(DataValue, Variant, DateTime)} and publish it with
+ * {@link NodeAttributes#put}, so a reader always sees either the old or the
+ * new value, never a half written one.
+ */
+final class ValueSnapshot {
+
+	private ValueSnapshot() {
+	}
+
+	/**
+	 * @return a new snapshot carrying the written value. Status code and
+	 *         source timestamp are kept, the server timestamp is set to the
+	 *         time of the write.
+	 */
+	public static DataValue withValue(DataValue current, Variant value, DateTime serverTimestamp) {
+		if (current == null) {
+			return new DataValue(value, null, null, serverTimestamp);
+		}
+		return new DataValue(value, current.getStatusCode(), current.getSourceTimestamp(),
+				current.getSourcePicoseconds(), serverTimestamp, null);
+	}
+
+	/**
+	 * Returns the Value attribute as it has to be sent for a read request.
+	 * When no timestamp has to change the shared snapshot itself is returned,
+	 * otherwise a lightweight view that shares the Variant and the status code
+	 * of the snapshot.
+	 *
+	 * @param snapshot
+	 *            the stored value
+	 * @param maxAge
+	 *            maxAge of the read request in milliseconds
+	 * @param timestampsToReturn
+	 *            TimestampsToReturn of the read request
+	 * @param now
+	 *            the time of the read
+	 */
+	public static DataValue view(DataValue snapshot, double maxAge, TimestampsToReturn timestampsToReturn,
+			DateTime now) {
+		DateTime sourceTimestamp = snapshot.getSourceTimestamp();
+		DateTime serverTimestamp = snapshot.getServerTimestamp();
+
+		// If the server does not have a value that is within the maximum age,
+		// it shall attempt to read a new value from the data source. If maxAge
+		// is set to 0, the server shall attempt to read a new value from the
+		// data source. Reading a new value is simulated here by refreshing the
+		// server timestamp.
+		if (serverTimestamp == null || maxAge - (now.getTimeInMillis() - serverTimestamp.getTimeInMillis()) <= 0) {
+			serverTimestamp = now;
+		}
+
+		if (timestampsToReturn != null) {
+			switch (timestampsToReturn) {
+			case Source:
+				sourceTimestamp = now;
+				serverTimestamp = null;
+				break;
+			case Both:
+				sourceTimestamp = now;
+				break;
+			case Neither:
+				serverTimestamp = null;
+				break;
+			default:
+				// case Server
+				break;
+			}
+		}
+
+		if (sourceTimestamp == snapshot.getSourceTimestamp() && serverTimestamp == snapshot.getServerTimestamp()) {
+			return snapshot;
+		}
+		return new DataValue(snapshot.getValue(), snapshot.getStatusCode(), sourceTimestamp,
+				snapshot.getSourcePicoseconds(), serverTimestamp, snapshot.getServerPicoseconds());
+	}
+
+	/**
+	 * Returns a value read from a {@link DataSource} with only the timestamps
+	 * requested by TimestampsToReturn. Unlike
+	 * {@link #view(DataValue, double, TimestampsToReturn, DateTime)} the
+	 * timestamps of the value are real and are not replaced.
+	 */
+	public static DataValue select(DataValue value, TimestampsToReturn timestampsToReturn) {
+		if (timestampsToReturn == null || timestampsToReturn == TimestampsToReturn.Both) {
+			return value;
+		}
+		DateTime sourceTimestamp = timestampsToReturn == TimestampsToReturn.Source ? value.getSourceTimestamp() : null;
+		DateTime serverTimestamp = timestampsToReturn == TimestampsToReturn.Server ? value.getServerTimestamp() : null;
+		if (sourceTimestamp == value.getSourceTimestamp() && serverTimestamp == value.getServerTimestamp()) {
+			return value;
+		}
+		return new DataValue(value.getValue(), value.getStatusCode(), sourceTimestamp,
+				sourceTimestamp == null ? null : value.getSourcePicoseconds(), serverTimestamp,
+				serverTimestamp == null ? null : value.getServerPicoseconds());
+	}
+
+}
@@ -0,0 +1,287 @@
+package org.dfki.iot.attack.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedByte;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.Attributes;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.core.WriteValue;
+
+/**
+ * Writes the items of a Write request in two stages:
+ * <ol>
+ * <li>validate: every item is checked against the NodeStore, items that
+ * cannot be written get a bad result code. A Value must be enabled by the
+ * CurrentWrite bit of the AccessLevel (and UserAccessLevel) of the variable and
+ * match its DataType, values that are computed or read from a
+ * {@link DataSource} cannot be written. Any other attribute must be enabled in
+ * the WriteMask (and UserWriteMask) of the node and have the standard type of
+ * the attribute,</li>
+ * <li>commit: the valid items are grouped by node and each group is applied
+ * while holding the lock of the node, so the writes to one node within a
+ * request are atomic. The listeners are notified after the lock has been
+ * released.</li>
+ * </ol>
+ * Nodes are mapped to a fixed number of lock stripes, so writers of different
+ * nodes rarely block each other. Authorization is done by the caller once per
+ * request.
+ */
+class WritePipeline {
+
+	/** Standard type of the attributes by attribute id. */
+	private static final Class<?>[] ATTRIBUTE_TYPES = new Class<?>[NodeAttributes.MAX_ATTRIBUTE_ID + 1];
+
+	/** CurrentWrite bit of the AccessLevel and UserAccessLevel masks. */
+	private static final int CURRENT_WRITE = 0x02;
+
+	/** Bit of the attributes in the WriteMask by attribute id. */
+	private static final int[] WRITE_MASK_BITS = new int[NodeAttributes.MAX_ATTRIBUTE_ID + 1];
+
+	static {
+		attribute(Attributes.AccessLevel, UnsignedByte.class, 0);
+		attribute(Attributes.ArrayDimensions, UnsignedInteger[].class, 1);
+		attribute(Attributes.BrowseName, QualifiedName.class, 2);
+		attribute(Attributes.ContainsNoLoops, Boolean.class, 3);
+		attribute(Attributes.DataType, NodeId.class, 4);
+		attribute(Attributes.Description, LocalizedText.class, 5);
+		attribute(Attributes.DisplayName, LocalizedText.class, 6);
+		attribute(Attributes.EventNotifier, UnsignedByte.class, 7);
+		attribute(Attributes.Executable, Boolean.class, 8);
+		attribute(Attributes.Historizing, Boolean.class, 9);
+		attribute(Attributes.InverseName, LocalizedText.class, 10);
+		attribute(Attributes.IsAbstract, Boolean.class, 11);
+		attribute(Attributes.MinimumSamplingInterval, Double.class, 12);
+		attribute(Attributes.Symmetric, Boolean.class, 15);
+		attribute(Attributes.UserAccessLevel, UnsignedByte.class, 16);
+		attribute(Attributes.UserExecutable, Boolean.class, 17);
+		attribute(Attributes.UserWriteMask, UnsignedInteger.class, 18);
+		attribute(Attributes.ValueRank, Integer.class, 19);
+		attribute(Attributes.WriteMask, UnsignedInteger.class, 20);
+	}
+
+	private static void attribute(UnsignedInteger attributeId, Class<?> type, int writeMaskBit) {
+		ATTRIBUTE_TYPES[attributeId.intValue()] = type;
+		WRITE_MASK_BITS[attributeId.intValue()] = 1 << writeMaskBit;
+	}
+
+	private final NodeStore nodeStore;
+	private final BatchExecutor executor;
+	private final ReentrantLock[] locks;
+	private final List<NodeChangeListener> listeners = new CopyOnWriteArrayList<NodeChangeListener>();
+
+	/**
+	 * @param stripes
+	 *            number of node locks, rounded up to a power of two
+	 */
+	public WritePipeline(NodeStore nodeStore, BatchExecutor executor, int stripes) {
+		this.nodeStore = nodeStore;
+		this.executor = executor;
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	public void addListener(NodeChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(NodeChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Validates and commits all items of a write request.
+	 *
+	 * @return the result code of every item in the order of the request
+	 */
+	public StatusCode[] write(final WriteValue[] nodesToWrite) {
+		final StatusCode[] results = new StatusCode[nodesToWrite.length];
+		final Variant[] values = new Variant[nodesToWrite.length];
+
+		// Validate, and group the valid items by node in request order
+		Map<NodeId, List<Integer>> groups = new LinkedHashMap<NodeId, List<Integer>>();
+		for (int i = 0; i < nodesToWrite.length; i++) {
+			results[i] = validate(nodesToWrite[i], values, i);
+			if (results[i] == null) {
+				List<Integer> group = groups.get(nodesToWrite[i].getNodeId());
+				if (group == null) {
+					group = new ArrayList<Integer>(1);
+					groups.put(nodesToWrite[i].getNodeId(), group);
+				}
+				group.add(i);
+			}
+		}
+
+		// Commit, groups of different nodes run in parallel for large
+		// requests
+		final List<List<Integer>> nodeGroups = new ArrayList<List<Integer>>(groups.values());
+		executor.execute(nodeGroups.size(), new BatchExecutor.ItemTask() {
+			public void run(int index) {
+				commit(nodesToWrite, values, nodeGroups.get(index), results);
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * @param values
+	 *            receives the value to store at index, converted to the
+	 *            DataType of the node if needed
+	 * @return a bad result code or null if the item can be written
+	 */
+	private StatusCode validate(WriteValue nodeToWrite, Variant[] values, int index) {
+		NodeAttributes attributes = nodeStore.get(nodeToWrite.getNodeId());
+		if (attributes == null) {
+			return new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+		}
+		if (!attributes.contains(nodeToWrite.getAttributeId())) {
+			return new StatusCode(StatusCodes.Bad_AttributeIdInvalid);
+		}
+		if (Attributes.NodeId.equals(nodeToWrite.getAttributeId())
+				|| Attributes.NodeClass.equals(nodeToWrite.getAttributeId())) {
+			// The identity of a node cannot be changed
+			return new StatusCode(StatusCodes.Bad_NotWritable);
+		}
+		if (nodeToWrite.getValue() == null) {
+			return new StatusCode(StatusCodes.Bad_TypeMismatch);
+		}
+		Variant value = nodeToWrite.getValue().getValue();
+		if (!Attributes.Value.equals(nodeToWrite.getAttributeId())) {
+			return validateAttribute(attributes, nodeToWrite.getAttributeId(), value, values, index);
+		}
+
+		if (attributes.getValueProvider() != null || attributes.getDataSource() != null) {
+			// Computed values and values of a data source cannot be written
+			return new StatusCode(StatusCodes.Bad_NotWritable);
+		}
+		if (!isEnabled(attributes.get(Attributes.AccessLevel), CURRENT_WRITE, false)) {
+			return new StatusCode(StatusCodes.Bad_NotWritable);
+		}
+		if (!isEnabled(attributes.get(Attributes.UserAccessLevel), CURRENT_WRITE, true)) {
+			return new StatusCode(StatusCodes.Bad_UserAccessDenied);
+		}
+		// Check the value against the DataType and ValueRank of the node
+		DataValue dataType = attributes.get(Attributes.DataType);
+		if (dataType == null || dataType.getValue() == null || !(dataType.getValue().getValue() instanceof NodeId)) {
+			// Error: Current node does not have data type specified
+			return new StatusCode(StatusCodes.Bad_TypeMismatch);
+		}
+		DataValue valueRank = attributes.get(Attributes.ValueRank);
+		int rank = valueRank != null && valueRank.getValue() != null
+				&& valueRank.getValue().getValue() instanceof Integer
+						? ((Integer) valueRank.getValue().getValue()).intValue() : -2;
+		Object coerced = BuiltinTypes.coerce((NodeId) dataType.getValue().getValue(), rank,
+				value == null ? null : value.getValue());
+		if (coerced == null) {
+			return new StatusCode(StatusCodes.Bad_TypeMismatch);
+		}
+		values[index] = coerced == value.getValue() ? value : new Variant(coerced);
+		return null;
+	}
+
+	/**
+	 * Checks the write of an attribute other than Value against the WriteMask
+	 * of the node and the standard type of the attribute.
+	 *
+	 * @return a bad result code or null if the item can be written
+	 */
+	private StatusCode validateAttribute(NodeAttributes attributes, UnsignedInteger attributeId, Variant value,
+			Variant[] values, int index) {
+		int id = attributeId.intValue();
+		if (WRITE_MASK_BITS[id] == 0 || !isEnabled(attributes.get(Attributes.WriteMask), WRITE_MASK_BITS[id], false)
+				|| !isEnabled(attributes.get(Attributes.UserWriteMask), WRITE_MASK_BITS[id], true)) {
+			return new StatusCode(StatusCodes.Bad_NotWritable);
+		}
+		Object written = value == null ? null : value.getValue();
+		if (written == null) {
+			return new StatusCode(StatusCodes.Bad_TypeMismatch);
+		}
+		// The nodeset may hold an attribute in another Java class than the
+		// standard type, e.g. an AccessLevel, a value of this class is
+		// accepted as well
+		DataValue current = attributes.get(attributeId);
+		Object currentValue = current == null || current.getValue() == null ? null : current.getValue().getValue();
+		if (!ATTRIBUTE_TYPES[id].isInstance(written)
+				&& (currentValue == null || currentValue.getClass() != written.getClass())) {
+			return new StatusCode(StatusCodes.Bad_TypeMismatch);
+		}
+		values[index] = value;
+		return null;
+	}
+
+	/**
+	 * @param mask
+	 *            WriteMask, UserWriteMask, AccessLevel or UserAccessLevel
+	 *            attribute of the node
+	 * @param missing
+	 *            result if the node does not have the mask
+	 * @return true if the bit is set in the mask
+	 */
+	private static boolean isEnabled(DataValue mask, int bit, boolean missing) {
+		if (mask == null || mask.getValue() == null || !(mask.getValue().getValue() instanceof UnsignedInteger
+				|| mask.getValue().getValue() instanceof UnsignedByte)) {
+			return missing;
+		}
+		return (((Number) mask.getValue().getValue()).intValue() & bit) != 0;
+	}
+
+	/**
+	 * Applies all items of one node under the lock of the node.
+	 */
+	private void commit(WriteValue[] nodesToWrite, Variant[] values, List<Integer> group, StatusCode[] results) {
+		NodeId nodeId = nodesToWrite[group.get(0)].getNodeId();
+		NodeAttributes attributes = nodeStore.get(nodeId);
+		DataValue[] committed = new DataValue[group.size()];
+
+		ReentrantLock lock = lock(nodeId);
+		lock.lock();
+		try {
+			for (int i = 0; i < group.size(); i++) {
+				int index = group.get(i);
+				WriteValue nodeToWrite = nodesToWrite[index];
+				if (attributes != null && attributes.publish(nodeToWrite.getAttributeId(), values[index])) {
+					results[index] = StatusCode.GOOD;
+					committed[i] = attributes.get(nodeToWrite.getAttributeId());
+				} else {
+					// The node has been removed after validation
+					results[index] = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (listeners.isEmpty()) {
+			return;
+		}
+		for (int i = 0; i < group.size(); i++) {
+			if (committed[i] != null) {
+				WriteValue nodeToWrite = nodesToWrite[group.get(i)];
+				for (NodeChangeListener listener : listeners) {
+					listener.attributeChanged(nodeId, nodeToWrite.getAttributeId(), committed[i]);
+				}
+			}
+		}
+	}
+
+	private ReentrantLock lock(NodeId nodeId) {
+		int hash = nodeId.hashCode();
+		hash ^= hash >>> 16;
+		return locks[hash & (locks.length - 1)];
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.dfki.iot.attack.model.EventModel;
+
+/**
+ * Record format of the audit log. An encoder is used by one writer thread and
+ * may keep state between the records of one file.
+ */
+public interface AuditEncoder {
+
+	/**
+	 * Appends the record of the event. Nothing is appended if the event
+	 * cannot be encoded.
+	 */
+	void encode(EventModel event, ByteArrayOutputStream output) throws IOException;
+
+	/**
+	 * Called when records could not be written, so that the next record does
+	 * not depend on the lost ones.
+	 */
+	void reset();
+
+}
@@ -0,0 +1,334 @@
+package org.dfki.iot.attack.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dfki.iot.attack.model.ActiveSessionEventParam;
+import org.dfki.iot.attack.model.CreateSessionEventParam;
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Reproducible round-trip check of the binary audit log format and of
+ * {@link AuditLogConverter}. A fixed set of events covering every schema, the
+ * JSON fallback and IPv4, IPv6 and text addresses is written with
+ * {@link BinaryAuditEncoder} and read back with {@link BinaryAuditReader}:
+ * <ul>
+ * <li>as a whole and from an index point, where the encoder is reset and the
+ * string dictionary starts over,</li>
+ * <li>across a full dictionary, which starts a new stream on its own,</li>
+ * <li>cut at every byte, which must fail or end cleanly at a record boundary
+ * but never return a wrong event,</li>
+ * <li>converted to JSON lines, back to binary and to JSON again.</li>
+ * </ul>
+ * Prints every failed check and exits with status 1 if there is one.
+ */
+public class AuditLogCheck {
+
+	private static final ObjectWriter EVENT_WRITER = JSONUtil.getWriter(EventModel.class, false);
+
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		List<EventModel> events = sampleEvents();
+		checkRoundTrip(events);
+		checkAddresses(events);
+		checkIndexPoint(events);
+		checkDictionaryLimit();
+		checkTruncatedRecords(events);
+		checkConversion(events);
+		if (failures > 0) {
+			System.out.println(failures + " audit log checks failed");
+			System.exit(1);
+		}
+		System.out.println("All audit log checks passed");
+	}
+
+	/**
+	 * @return events of every schema, the JSON fallback and every kind of
+	 *         address, with strings that repeat so that the dictionary is used
+	 */
+	static List<EventModel> sampleEvents() {
+		List<EventModel> events = new ArrayList<EventModel>();
+		long timestamp = 1500000000000L;
+		events.add(event("onFindServers", param(null, null, null, null, 0), timestamp++));
+		events.add(event("onRead", param("ns=0;i=1001", "ns=0;b=dG9rZW4=", "audit-1", "192.168.1.20", 4840),
+				timestamp++));
+		// Host address form of an IPv6 address, packed into 16 bytes
+		events.add(event("onWrite",
+				param("ns=0;i=1001", "ns=0;b=dG9rZW4=", "audit-2", "2001:db8:0:0:0:0:0:1", 52100), timestamp++));
+		// Compressed IPv6 text differs from the host address form, kept as
+		// text
+		events.add(event("onAddNodes", param("ns=0;i=1001", "ns=0;b=dG9rZW4=", null, "2001:db8::1", 52101),
+				timestamp++));
+		events.add(event("onRead", param(null, "ns=0;b=dG9rZW4=", "audit-3", "gateway.local", 65535), timestamp++));
+
+		ActiveSessionEventParam activeSession = new ActiveSessionEventParam();
+		activeSession.setSessionId("ns=0;i=1001");
+		activeSession.setAuthenToken("ns=0;b=dG9rZW4=");
+		activeSession.setUserName("operator");
+		activeSession.setIpAddress("10.0.0.7");
+		activeSession.setPort(4841);
+		events.add(event("onActivateSession", activeSession, timestamp++));
+
+		CreateSessionEventParam createSession = new CreateSessionEventParam();
+		createSession.setSessionId("ns=0;i=1002");
+		createSession.setAuthenToken("ns=0;b=b3RoZXI=");
+		createSession.setSessionName("Rover client \u00e4\u00f6\u00fc");
+		createSession.setClientApplicationName("UaExpert");
+		createSession.setClientMaxResponseTime(UnsignedInteger.valueOf(30000));
+		createSession.setClientRequestSessionTimeOut(Double.valueOf(1200000));
+		createSession.setSessionResult("Good");
+		createSession.setResRevisedTimeOut(Double.valueOf(600000.5));
+		createSession.setIpAddress("fe80:0:0:0:0:0:0:2");
+		createSession.setPort(49152);
+		events.add(event("onCreateSession", createSession, timestamp++));
+
+		CreateSessionEventParam emptySession = new CreateSessionEventParam();
+		events.add(event("onCreateSession", emptySession, timestamp++));
+
+		// No schema: written as JSON
+		Map<String, Object> custom = new LinkedHashMap<String, Object>();
+		custom.put("nodeId", "ns=1;s=Rover.Temperature");
+		custom.put("count", Integer.valueOf(3));
+		custom.put("tags", Arrays.asList("a", "b"));
+		events.add(event("onBrowse", custom, timestamp++));
+		events.add(event("onCloseSession", null, timestamp++));
+		events.add(event("onCallMethod", param("ns=0;i=1001", null, null, "10.0.0.7", 1), timestamp++));
+		return events;
+	}
+
+	/**
+	 * Every event is read back as it was written.
+	 */
+	static void checkRoundTrip(List<EventModel> events) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		for (EventModel event : events) {
+			encoder.encode(event, log);
+		}
+		List<EventModel> read = readAll(log.toByteArray(), 0);
+		check("round trip", json(events).equals(json(read)), json(events) + " != " + json(read));
+	}
+
+	/**
+	 * Host form addresses are packed, other addresses are kept as text.
+	 */
+	static void checkAddresses(List<EventModel> events) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		for (EventModel event : events) {
+			encoder.encode(event, log);
+		}
+		String content = new String(log.toByteArray(), StandardCharsets.ISO_8859_1);
+		check("IPv4 packed", !content.contains("192.168.1.20"), "IPv4 address written as text");
+		check("IPv6 packed", !content.contains("2001:db8:0:0:0:0:0:1"), "IPv6 address written as text");
+		check("IPv6 text kept", content.contains("2001:db8::1"), "compressed IPv6 address not written as text");
+		check("host name kept", content.contains("gateway.local"), "host name not written as text");
+	}
+
+	/**
+	 * A reader that starts at an index point, where the encoder was reset,
+	 * reads the following events without the strings of the earlier ones.
+	 */
+	static void checkIndexPoint(List<EventModel> events) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		int half = events.size() / 2;
+		for (int i = 0; i < half; i++) {
+			encoder.encode(events.get(i), log);
+		}
+		// As SegmentedEventLog does when it starts a new segment or index
+		// point
+		encoder.reset();
+		int indexPoint = log.size();
+		for (int i = half; i < events.size(); i++) {
+			encoder.encode(events.get(i), log);
+		}
+		byte[] content = log.toByteArray();
+		List<EventModel> all = readAll(content, 0);
+		check("index point, whole log", json(events).equals(json(all)), json(all));
+		List<EventModel> tail = readAll(content, indexPoint);
+		List<EventModel> expected = events.subList(half, events.size());
+		check("index point, from the index", json(expected).equals(json(tail)), json(tail));
+	}
+
+	/**
+	 * More distinct strings than the dictionary holds start a new stream and
+	 * are still read back.
+	 */
+	static void checkDictionaryLimit() throws IOException {
+		List<EventModel> events = new ArrayList<EventModel>();
+		for (int i = 0; i < BinaryAuditEncoder.MAX_DICTIONARY_SIZE + 100; i++) {
+			events.add(event("onRead", param("ns=0;i=" + i, "ns=0;b=dG9rZW4=", null, "10.0.0.1", 4840), i));
+		}
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		for (EventModel event : events) {
+			encoder.encode(event, log);
+		}
+		List<EventModel> read = readAll(log.toByteArray(), 0);
+		check("full dictionary", read.size() == events.size() && json(events).equals(json(read)),
+				read.size() + " of " + events.size() + " events read back");
+	}
+
+	/**
+	 * A log cut at any byte either ends cleanly at a record boundary or fails
+	 * with an IOException. The events read before are never wrong.
+	 */
+	static void checkTruncatedRecords(List<EventModel> events) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		// Number of complete events by the length of the log at a boundary
+		Map<Integer, Integer> boundaries = new HashMap<Integer, Integer>();
+		boundaries.put(0, 0);
+		// The stream header, frame length 0 and the magic
+		boundaries.put(1 + BinaryAuditEncoder.MAGIC.length, 0);
+		for (EventModel event : events) {
+			encoder.encode(event, log);
+			boundaries.put(log.size(), boundaries.size() - 1);
+		}
+		byte[] content = log.toByteArray();
+		int wrong = 0;
+		for (int length = 0; length < content.length; length++) {
+			BinaryAuditReader reader = new BinaryAuditReader(
+					new ByteArrayInputStream(Arrays.copyOf(content, length)));
+			int count = 0;
+			boolean failed = false;
+			try {
+				EventModel event;
+				while ((event = reader.read()) != null) {
+					if (count >= events.size() || !json(events.get(count)).equals(json(event))) {
+						wrong++;
+						System.out.println("Cut at " + length + ": wrong event " + json(event));
+					}
+					count++;
+				}
+			} catch (IOException e) {
+				failed = true;
+			} finally {
+				reader.close();
+			}
+			Integer boundary = boundaries.get(length);
+			if (failed == (boundary != null)) {
+				wrong++;
+				System.out.println("Cut at " + length + ": " + (failed ? "failed at a record boundary"
+						: "ended without error inside a record"));
+			} else if (!failed && count != boundary.intValue()) {
+				wrong++;
+				System.out.println("Cut at " + length + ": " + count + " events instead of " + boundary);
+			}
+		}
+		check("truncated records", wrong == 0, wrong + " cuts handled wrongly");
+	}
+
+	/**
+	 * binary -> JSON -> binary -> JSON gives the same JSON lines, which match
+	 * the events.
+	 */
+	static void checkConversion(List<EventModel> events) throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		for (EventModel event : events) {
+			encoder.encode(event, log);
+		}
+		String firstJson = toJson(log.toByteArray());
+		StringBuilder expected = new StringBuilder();
+		for (EventModel event : events) {
+			expected.append(json(event)).append('\n');
+		}
+		check("toJson", expected.toString().equals(firstJson), firstJson);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		long count = AuditLogConverter.toBinary(new BufferedReader(new StringReader(firstJson)), binary);
+		check("toBinary count", count == events.size(), count + " events converted");
+		String secondJson = toJson(binary.toByteArray());
+		check("toJson of toBinary", firstJson.equals(secondJson), secondJson);
+
+		try {
+			AuditLogConverter.parseEvent("[1, 2]");
+			check("non object line", false, "no IOException");
+		} catch (IOException e) {
+			check("non object line", true, null);
+		}
+	}
+
+	private static String toJson(byte[] content) throws IOException {
+		StringWriter output = new StringWriter();
+		BinaryAuditReader reader = new BinaryAuditReader(new ByteArrayInputStream(content));
+		try {
+			AuditLogConverter.toJson(reader, output);
+		} finally {
+			reader.close();
+		}
+		return output.toString();
+	}
+
+	private static List<EventModel> readAll(byte[] content, int offset) throws IOException {
+		List<EventModel> events = new ArrayList<EventModel>();
+		BinaryAuditReader reader = new BinaryAuditReader(
+				new ByteArrayInputStream(content, offset, content.length - offset));
+		try {
+			EventModel event;
+			while ((event = reader.read()) != null) {
+				events.add(event);
+			}
+		} finally {
+			reader.close();
+		}
+		return events;
+	}
+
+	private static String json(EventModel event) throws JsonProcessingException {
+		return EVENT_WRITER.writeValueAsString(event);
+	}
+
+	private static String json(List<EventModel> events) throws JsonProcessingException {
+		StringBuilder text = new StringBuilder();
+		for (EventModel event : events) {
+			text.append(json(event)).append('\n');
+		}
+		return text.toString();
+	}
+
+	private static void check(String name, boolean passed, String detail) {
+		if (passed) {
+			System.out.println("ok     " + name);
+		} else {
+			failures++;
+			System.out.println("FAILED " + name + ": " + detail);
+		}
+	}
+
+	static EventModel event(String eventType, Object param, long timestamp) {
+		EventModel event = new EventModel(eventType, param);
+		event.setTimestamp(timestamp);
+		return event;
+	}
+
+	static EventParamModel param(String sessionId, String authenToken, String auditId, String ipAddress, int port) {
+		EventParamModel param = new EventParamModel();
+		param.setSessionId(sessionId);
+		param.setAuthenToken(authenToken);
+		param.setAuditId(auditId);
+		param.setIpAddress(ipAddress);
+		param.setPort(port);
+		return param;
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.dfki.iot.attack.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.dfki.iot.attack.model.ActiveSessionEventParam;
+import org.dfki.iot.attack.model.CreateSessionEventParam;
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Converts audit logs between the JSON line format and the binary format of
+ * {@link BinaryAuditEncoder}. Both directions stream the log, one event at a
+ * time.
+ */
+public class AuditLogConverter {
+
+	/**
+	 * Writes every event of a binary log as one line of JSON.
+	 *
+	 * @return the number of events
+	 */
+	public static long toJson(BinaryAuditReader reader, Writer output) throws IOException {
+		ObjectWriter eventWriter = JSONUtil.getWriter(EventModel.class, false);
+		long count = 0;
+		EventModel event;
+		while ((event = reader.read()) != null) {
+			output.write(eventWriter.writeValueAsString(event));
+			output.write('\n');
+			count++;
+		}
+		output.flush();
+		return count;
+	}
+
+	/**
+	 * Writes every line of a JSON log as a binary record.
+	 *
+	 * @return the number of events
+	 */
+	public static long toBinary(BufferedReader input, OutputStream output) throws IOException {
+		BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+		ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+		long count = 0;
+		String line;
+		while ((line = input.readLine()) != null) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			encoder.encode(parseEvent(line), batch);
+			count++;
+			if (batch.size() >= 32 * 1024) {
+				batch.writeTo(output);
+				batch.reset();
+			}
+		}
+		batch.writeTo(output);
+		output.flush();
+		return count;
+	}
+
+	/**
+	 * @return the event of a JSON line with the parameters of its event type
+	 */
+	static EventModel parseEvent(String line) throws IOException {
+		JsonNode node = JSONUtil.getReader(JsonNode.class).readValue(line);
+		if (node == null || !node.isObject()) {
+			throw new IOException("Not an audit event: " + line);
+		}
+		String eventType = text(node, "eventType");
+		JsonNode param = node.get("eventParam");
+		EventModel event;
+		if (param == null || param.isNull()) {
+			event = new EventModel(eventType, null);
+		} else if ("onActivateSession".equals(eventType)) {
+			ActiveSessionEventParam activeSession = new ActiveSessionEventParam();
+			activeSession.setSessionId(text(param, "sessionId"));
+			activeSession.setAuthenToken(text(param, "authenToken"));
+			activeSession.setUserName(text(param, "userName"));
+			activeSession.setIpAddress(text(param, "ipAddress"));
+			activeSession.setPort(param.path("port").asInt());
+			event = new EventModel(eventType, activeSession);
+		} else if ("onCreateSession".equals(eventType) && param.path("resTimeStamp").isNull()) {
+			CreateSessionEventParam createSession = new CreateSessionEventParam();
+			createSession.setSessionId(text(param, "sessionId"));
+			createSession.setAuthenToken(text(param, "authenToken"));
+			createSession.setSessionName(text(param, "sessionName"));
+			createSession.setClientApplicationName(text(param, "clientApplicationName"));
+			JsonNode maxResponseTime = param.path("clientMaxResponseTime");
+			createSession.setClientMaxResponseTime(
+					maxResponseTime.isNumber() ? UnsignedInteger.valueOf(maxResponseTime.asLong()) : null);
+			createSession.setClientRequestSessionTimeOut(number(param, "clientRequestSessionTimeOut"));
+			createSession.setSessionResult(text(param, "sessionResult"));
+			createSession.setResRevisedTimeOut(number(param, "resRevisedTimeOut"));
+			createSession.setIpAddress(text(param, "ipAddress"));
+			createSession.setPort(param.path("port").asInt());
+			event = new EventModel(eventType, createSession);
+		} else if (hasEventParamModel(eventType)) {
+			EventParamModel eventParam = new EventParamModel();
+			eventParam.setSessionId(text(param, "sessionId"));
+			eventParam.setAuthenToken(text(param, "authenToken"));
+			eventParam.setAuditId(text(param, "auditId"));
+			eventParam.setIpAddress(text(param, "ipAddress"));
+			eventParam.setPort(param.path("port").asInt());
+			event = new EventModel(eventType, eventParam);
+		} else {
+			// Kept as JSON
+			event = new EventModel(eventType, param);
+		}
+		event.setTimestamp(node.path("timestamp").asLong());
+		return event;
+	}
+
+	private static boolean hasEventParamModel(String eventType) {
+		for (int schema = BinaryAuditEncoder.SCHEMA_FIND_SERVERS; schema <= BinaryAuditEncoder.SCHEMA_WRITE; schema++) {
+			if (BinaryAuditEncoder.EVENT_TYPES[schema].equals(eventType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String text(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? null : value.asText();
+	}
+
+	private static Double number(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value != null && value.isNumber() ? Double.valueOf(value.asDouble()) : null;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 || !("toJson".equals(args[0]) || "toBinary".equals(args[0]))) {
+			System.out.println("Usage: AuditLogConverter toJson|toBinary <input log> <output log>");
+			return;
+		}
+		long count;
+		if ("toJson".equals(args[0])) {
+			BinaryAuditReader reader = new BinaryAuditReader(new FileInputStream(args[1]));
+			try {
+				Writer output = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8));
+				try {
+					count = toJson(reader, output);
+				} finally {
+					output.close();
+				}
+			} finally {
+				reader.close();
+			}
+		} else {
+			BufferedReader input = new BufferedReader(
+					new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8));
+			try {
+				OutputStream output = new FileOutputStream(args[2]);
+				try {
+					count = toBinary(input, output);
+				} finally {
+					output.close();
+				}
+			} finally {
+				input.close();
+			}
+		}
+		System.out.println(count + " events written to " + args[2]);
+	}
+
+}
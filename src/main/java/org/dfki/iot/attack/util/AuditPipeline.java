@@ -0,0 +1,418 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dfki.iot.attack.model.EventModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes audit events to a {@link SegmentedEventLog} without blocking the
+ * request threads.
+ *
+ * Request threads publish events into a bounded ring buffer: a slot is
+ * claimed with one compare-and-set on the tail sequence, no lock is taken.
+ * A single writer thread drains the buffer in batches, encodes the events
+ * with an {@link AuditEncoder} and appends each batch to the current segment
+ * of the log. When the buffer is full the event is dropped and counted, so a
+ * slow disk never stalls a request.
+ *
+ * The {@link Durability} decides when the log is synced to the disk. With
+ * group commit every batch is synced once, so all events that arrived while
+ * the previous batch was synced share one FileChannel.force, and a request
+ * thread can wait until its event is durable.
+ */
+public class AuditPipeline {
+
+	/**
+	 * When written events are synced to the disk.
+	 */
+	public enum Durability {
+		// Left to the operating system
+		NONE,
+		// Every sync interval
+		PERIODIC,
+		// After every batch
+		GROUP;
+
+		/**
+		 * @return the durability of the name, ignoring case, or NONE
+		 */
+		public static Durability forName(String name) {
+			for (Durability durability : values()) {
+				if (durability.name().equalsIgnoreCase(name == null ? "" : name.trim())) {
+					return durability;
+				}
+			}
+			return NONE;
+		}
+	}
+
+	private static final Logger myLogger = LoggerFactory.getLogger(AuditPipeline.class);
+
+	private final AtomicReferenceArray<EventModel> slots;
+	private final int mask;
+	private final int batchSize;
+	// Next sequence to claim by a publisher
+	private final AtomicLong tail = new AtomicLong();
+	// Next sequence to read by the writer, only written by the writer
+	private volatile long head;
+
+	private final SegmentedEventLog log;
+	private final AuditEncoder encoder;
+	private final Durability durability;
+	private final long syncIntervalNanos;
+	private final Thread writer;
+	private volatile boolean writerWaiting;
+	private volatile boolean closed;
+
+	// Events before this sequence are durable, or written for NONE
+	private volatile long durableSequence;
+	// Sequences of the events that could not be encoded or written, as
+	// pairs of from and to. Kept while publishers wait for durability, guarded by
+	// durableLock.
+	private final List<long[]> lostRanges = new ArrayList<long[]>();
+	// No lost range reaches beyond this sequence
+	private volatile long lostBefore;
+	private final Object durableLock = new Object();
+	// Publishers in publishAndAwait, counted before they claim a sequence
+	private final AtomicInteger durableWaiters = new AtomicInteger();
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong syncs = new AtomicLong();
+
+	/**
+	 * @param log
+	 *            log the events are appended to, only used by the writer
+	 *            thread and closed with the pipeline
+	 * @param encoder
+	 *            format of the records, only used by the writer thread
+	 * @param capacity
+	 *            number of events the buffer holds, rounded up to a power of
+	 *            two
+	 * @param batchSize
+	 *            maximum number of events written at once
+	 * @param syncIntervalMillis
+	 *            time between syncs for {@link Durability#PERIODIC}
+	 */
+	public AuditPipeline(SegmentedEventLog log, AuditEncoder encoder, int capacity, int batchSize,
+			Durability durability, long syncIntervalMillis) {
+		this.log = log;
+		this.encoder = encoder;
+		this.durability = durability;
+		this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, syncIntervalMillis));
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.slots = new AtomicReferenceArray<EventModel>(size);
+		this.mask = size - 1;
+		this.batchSize = Math.max(1, batchSize);
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				writeEvents();
+			}
+		}, "audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Adds an event to the buffer.
+	 *
+	 * @return false if the event was dropped because the buffer is full or
+	 *         the pipeline is closed
+	 */
+	public boolean publish(EventModel event) {
+		return claim(event) >= 0;
+	}
+
+	/**
+	 * Adds an event to the buffer and waits until it is durable, see
+	 * {@link Durability}. With {@link Durability#NONE} it waits until the
+	 * event is written to the file.
+	 *
+	 * @return false if the event was dropped or is not durable within the
+	 *         timeout
+	 */
+	public boolean publishAndAwait(EventModel event, long timeoutMillis) {
+		// Lost ranges are kept as long as a waiter is registered, so the
+		// range of this event cannot be dropped before it is checked
+		durableWaiters.incrementAndGet();
+		try {
+			long sequence = claim(event);
+			if (sequence < 0) {
+				return false;
+			}
+			if (durableSequence > sequence && sequence >= lostBefore) {
+				return true;
+			}
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			synchronized (durableLock) {
+				for (;;) {
+					if (isLost(sequence)) {
+						return false;
+					}
+					if (durableSequence > sequence) {
+						return true;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(durableLock, remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			if (durableWaiters.decrementAndGet() == 0) {
+				synchronized (durableLock) {
+					if (durableWaiters.get() == 0) {
+						lostRanges.clear();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the event with this sequence could not be written, must
+	 *         be called while holding durableLock
+	 */
+	private boolean isLost(long sequence) {
+		for (int i = lostRanges.size() - 1; i >= 0; i--) {
+			long[] range = lostRanges.get(i);
+			if (sequence >= range[0] && sequence < range[1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sequence of the event or -1 if it was dropped
+	 */
+	private long claim(EventModel event) {
+		if (closed) {
+			dropped.incrementAndGet();
+			return -1;
+		}
+		long sequence;
+		for (;;) {
+			sequence = tail.get();
+			if (sequence - head >= slots.length()) {
+				dropped.incrementAndGet();
+				return -1;
+			}
+			if (tail.compareAndSet(sequence, sequence + 1)) {
+				slots.set((int) (sequence & mask), event);
+				break;
+			}
+		}
+		if (writerWaiting) {
+			LockSupport.unpark(writer);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Writes the events in the buffer, syncs them unless the durability is
+	 * NONE and closes the log.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+		myLogger.info("Audit pipeline closed: {} events written, {} dropped, {} syncs", written.get(),
+				dropped.get(), syncs.get());
+	}
+
+	/**
+	 * @return the number of events that were dropped because the buffer was
+	 *         full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getSyncCount() {
+		return syncs.get();
+	}
+
+	/**
+	 * @return the number of events waiting to be written
+	 */
+	public int getQueueDepth() {
+		return (int) (tail.get() - head);
+	}
+
+	private void writeEvents() {
+		ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+		int[] serialized = new int[1];
+		// Smallest and largest timestamp of the batch
+		long[] timestamps = new long[2];
+		// Sequence written but not synced yet, or -1
+		long unsynced = -1;
+		long lastSync = System.nanoTime();
+		for (;;) {
+			serialized[0] = 0;
+			timestamps[0] = Long.MAX_VALUE;
+			timestamps[1] = Long.MIN_VALUE;
+			try {
+				if (log.prepareAppend()) {
+					// Readers may start at the next batch
+					encoder.reset();
+				}
+			} catch (IOException e) {
+				myLogger.warn("Unable to start a new audit segment: " + e.toString());
+			}
+			long batchStart = head;
+			if (drain(batch, serialized, timestamps) > 0) {
+				try {
+					log.append(batch, timestamps[0], timestamps[1]);
+					written.addAndGet(serialized[0]);
+					if (durability == Durability.GROUP) {
+						sync(head);
+						lastSync = System.nanoTime();
+					} else if (durability == Durability.PERIODIC) {
+						unsynced = head;
+					} else {
+						setDurable(head);
+					}
+				} catch (IOException e) {
+					dropped.addAndGet(serialized[0]);
+					encoder.reset();
+					setLost(batchStart, head);
+					myLogger.warn("Unable to write audit events: " + e.toString());
+				}
+				batch.reset();
+			} else if (tail.get() != head) {
+				// A publisher has claimed a slot but not filled it yet
+				Thread.yield();
+			} else if (closed) {
+				if (unsynced >= 0) {
+					sync(unsynced);
+				}
+				return;
+			} else {
+				// Publishers and close() unpark the writer, it only wakes up
+				// on its own for a pending periodic sync
+				writerWaiting = true;
+				if (tail.get() == head && !closed) {
+					if (unsynced >= 0) {
+						LockSupport.parkNanos(this, Math.max(1, syncIntervalNanos - (System.nanoTime() - lastSync)));
+					} else {
+						LockSupport.park(this);
+					}
+				}
+				writerWaiting = false;
+			}
+			if (unsynced >= 0 && System.nanoTime() - lastSync >= syncIntervalNanos) {
+				sync(unsynced);
+				unsynced = -1;
+				lastSync = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Forces the written events to the disk.
+	 *
+	 * @param sequence
+	 *            end of the written events
+	 */
+	private void sync(long sequence) {
+		try {
+			log.force();
+			syncs.incrementAndGet();
+			setDurable(sequence);
+		} catch (IOException e) {
+			// The events are written, a later sync may still succeed
+			myLogger.warn("Unable to sync audit events: " + e.toString());
+		}
+	}
+
+	private void setDurable(long sequence) {
+		durableSequence = sequence;
+		if (durableWaiters.get() > 0) {
+			synchronized (durableLock) {
+				durableLock.notifyAll();
+			}
+		}
+	}
+
+	private void setLost(long from, long to) {
+		synchronized (durableLock) {
+			// Publishers that register later claim sequences after this
+			// range, so it is only needed if one is registered
+			if (durableWaiters.get() > 0) {
+				long[] last = lostRanges.isEmpty() ? null : lostRanges.get(lostRanges.size() - 1);
+				if (last != null && last[1] == from) {
+					last[1] = to;
+				} else {
+					lostRanges.add(new long[] { from, to });
+				}
+			}
+			lostBefore = to;
+			durableLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Encodes up to batchSize published events into the batch.
+	 *
+	 * @param serialized
+	 *            receives the number of events added to the batch
+	 * @param timestamps
+	 *            receives the smallest and largest timestamp of these events
+	 * @return the number of events taken from the buffer
+	 */
+	private int drain(ByteArrayOutputStream batch, int[] serialized, long[] timestamps) {
+		long sequence = head;
+		int count = 0;
+		while (count < batchSize) {
+			int index = (int) (sequence & mask);
+			EventModel event = slots.get(index);
+			if (event == null) {
+				break;
+			}
+			slots.lazySet(index, null);
+			sequence++;
+			count++;
+			try {
+				encoder.encode(event, batch);
+				serialized[0]++;
+				timestamps[0] = Math.min(timestamps[0], event.getTimestamp());
+				timestamps[1] = Math.max(timestamps[1], event.getTimestamp());
+			} catch (Exception e) {
+				// An event that cannot be encoded must not stop the writer. It
+				// is lost, so a publisher waiting for it is not told it is
+				// durable once the rest of the batch is synced.
+				dropped.incrementAndGet();
+				setLost(sequence - 1, sequence);
+				myLogger.warn("Unable to encode audit event " + event.getEventType() + ": " + e.toString());
+			}
+		}
+		// Frees the slots for the publishers
+		head = sequence;
+		return count;
+	}
+
+}
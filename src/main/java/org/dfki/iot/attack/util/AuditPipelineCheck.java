@@ -0,0 +1,211 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+
+/**
+ * Reproducible check of the durability guarantees of {@link AuditPipeline}:
+ * <ul>
+ * <li>with GROUP durability publishAndAwait returns true once the batch of
+ * the event is synced, and false for an event of the same batch that could
+ * not be encoded,</li>
+ * <li>a batch that cannot be appended is reported as lost, later batches are
+ * durable again,</li>
+ * <li>with PERIODIC durability a waiting publisher is released by the next
+ * periodic sync and an idle writer does not sync,</li>
+ * <li>the events that were written, and only those, are found in the log
+ * after close, and publishing after close fails.</li>
+ * </ul>
+ * Prints every failed check and exits with status 1 if there is one.
+ */
+public class AuditPipelineCheck {
+
+	private static int failures;
+
+	/**
+	 * Encodes JSON lines. Blocks on the event type "gate" until it is opened
+	 * and fails on the event type "unencodable".
+	 */
+	private static class TestEncoder implements AuditEncoder {
+		private final JsonAuditEncoder json = new JsonAuditEncoder();
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		public void encode(EventModel event, ByteArrayOutputStream output) throws IOException {
+			if ("gate".equals(event.getEventType())) {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if ("unencodable".equals(event.getEventType())) {
+				throw new IOException("Cannot encode " + event.getEventType());
+			}
+			json.encode(event, output);
+		}
+
+		public void reset() {
+			json.reset();
+		}
+	}
+
+	/**
+	 * Log whose appends fail while failAppends is set.
+	 */
+	private static class FailingLog extends SegmentedEventLog {
+		volatile boolean failAppends;
+
+		FailingLog(File directory) throws IOException {
+			super(directory, "event", false, 1 << 20, 0, 4096, 0, 0);
+		}
+
+		@Override
+		public void append(ByteArrayOutputStream batch, long minTimestamp, long maxTimestamp) throws IOException {
+			if (failAppends) {
+				throw new IOException("Disk full");
+			}
+			super.append(batch, minTimestamp, maxTimestamp);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		checkGroupDurability();
+		checkPeriodicDurability();
+		if (failures > 0) {
+			System.out.println(failures + " audit pipeline checks failed");
+			System.exit(1);
+		}
+		System.out.println("All audit pipeline checks passed");
+	}
+
+	static void checkGroupDurability() throws Exception {
+		File directory = Files.createTempDirectory("audit-pipeline-check").toFile();
+		try {
+			FailingLog log = new FailingLog(directory);
+			TestEncoder encoder = new TestEncoder();
+			final AuditPipeline pipeline = new AuditPipeline(log, encoder, 64, 16, AuditPipeline.Durability.GROUP,
+					1000);
+
+			// The writer blocks on the gate, so the following events are
+			// drained together with it in one batch
+			pipeline.publish(event("gate", 1));
+			List<Thread> publishers = new ArrayList<Thread>();
+			final List<AtomicBoolean> results = new ArrayList<AtomicBoolean>();
+			for (int i = 0; i < 4; i++) {
+				final EventModel event = event(i == 2 ? "unencodable" : "onRead", 2 + i);
+				final AtomicBoolean result = new AtomicBoolean();
+				results.add(result);
+				Thread publisher = new Thread(new Runnable() {
+					public void run() {
+						result.set(pipeline.publishAndAwait(event, 5000));
+					}
+				});
+				publisher.start();
+				publishers.add(publisher);
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pipeline.getQueueDepth() < 5 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			encoder.gate.countDown();
+			for (Thread publisher : publishers) {
+				publisher.join();
+			}
+			check("group: durable events of the batch", results.get(0).get() && results.get(1).get()
+					&& results.get(3).get(), results.toString());
+			check("group: unencodable event is not durable", !results.get(2).get(), results.toString());
+			check("group: synced", pipeline.getSyncCount() > 0, pipeline.getSyncCount() + " syncs");
+
+			log.failAppends = true;
+			boolean lostResult = pipeline.publishAndAwait(event("onWrite", 6), 5000);
+			log.failAppends = false;
+			check("group: failed append is not durable", !lostResult, "publishAndAwait returned true");
+			check("group: durable after a failed append", pipeline.publishAndAwait(event("onWrite", 7), 5000),
+					"publishAndAwait returned false");
+			check("group: dropped count", pipeline.getDroppedCount() == 2,
+					pipeline.getDroppedCount() + " events dropped");
+
+			pipeline.close();
+			check("group: publish after close", !pipeline.publish(event("onRead", 8)), "publish returned true");
+
+			final List<Long> timestamps = new ArrayList<Long>();
+			SegmentedEventLog.query(directory, "event", false, 0, Long.MAX_VALUE,
+					new SegmentedEventLog.EventVisitor() {
+						public boolean visit(EventModel event) {
+							timestamps.add(event.getTimestamp());
+							return true;
+						}
+					});
+			// The publishers claim their sequences in any order
+			Collections.sort(timestamps);
+			check("group: written events", "[1, 2, 3, 5, 7]".equals(timestamps.toString()), timestamps.toString());
+		} finally {
+			delete(directory);
+		}
+	}
+
+	static void checkPeriodicDurability() throws Exception {
+		File directory = Files.createTempDirectory("audit-pipeline-check").toFile();
+		try {
+			FailingLog log = new FailingLog(directory);
+			TestEncoder encoder = new TestEncoder();
+			encoder.gate.countDown();
+			AuditPipeline pipeline = new AuditPipeline(log, encoder, 64, 16, AuditPipeline.Durability.PERIODIC,
+					100);
+			long start = System.nanoTime();
+			boolean durable = pipeline.publishAndAwait(event("onRead", 1), 5000);
+			long waitedMillis = (System.nanoTime() - start) / 1000000;
+			check("periodic: durable after the next sync", durable && waitedMillis < 1000,
+					"durable " + durable + " after " + waitedMillis + " ms");
+
+			Thread.sleep(300);
+			long syncs = pipeline.getSyncCount();
+			Thread.sleep(500);
+			check("periodic: idle writer does not sync", pipeline.getSyncCount() == syncs,
+					(pipeline.getSyncCount() - syncs) + " syncs while idle");
+			pipeline.close();
+			check("periodic: written", pipeline.getWrittenCount() == 1, pipeline.getWrittenCount() + " written");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static EventModel event(String eventType, long timestamp) {
+		EventParamModel param = new EventParamModel();
+		param.setIpAddress("10.0.0.1");
+		param.setPort(4840);
+		EventModel event = new EventModel(eventType, param);
+		event.setTimestamp(timestamp);
+		return event;
+	}
+
+	private static void check(String name, boolean passed, String detail) {
+		if (passed) {
+			System.out.println("ok     " + name);
+		} else {
+			failures++;
+			System.out.println("FAILED " + name + ": " + detail);
+		}
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}
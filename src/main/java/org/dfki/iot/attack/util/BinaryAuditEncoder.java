@@ -0,0 +1,266 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import org.dfki.iot.attack.model.ActiveSessionEventParam;
+import org.dfki.iot.attack.model.CreateSessionEventParam;
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+
+/**
+ * Compact binary audit records, read by {@link BinaryAuditReader}.
+ *
+ * A log is a sequence of frames, each prefixed with its length as a varint.
+ * A frame of length 0 followed by {@link #MAGIC} starts a stream and clears
+ * the string dictionary; every other frame is one record:
+ *
+ * <pre>
+ * schema id, timestamp, fields of the schema
+ * </pre>
+ *
+ * The schema id stands for the event type and the class of its parameters.
+ * Integers are unsigned varints, addresses are packed into 4 or 16 bytes and
+ * strings are coded against a dictionary of the strings seen since the start
+ * of the stream: 0 is null, 1 is a new string that follows as length and
+ * UTF-8 bytes, n is the (n - 2)th string of the dictionary. Events that match
+ * no schema are written with their type and parameters as JSON.
+ */
+public class BinaryAuditEncoder implements AuditEncoder {
+
+	static final byte[] MAGIC = { 'O', 'A', 'U', 1 };
+
+	static final int SCHEMA_JSON = 0;
+	static final int SCHEMA_FIND_SERVERS = 1;
+	static final int SCHEMA_ADD_NODES = 2;
+	static final int SCHEMA_READ = 3;
+	static final int SCHEMA_WRITE = 4;
+	static final int SCHEMA_ACTIVATE_SESSION = 5;
+	static final int SCHEMA_CREATE_SESSION = 6;
+
+	// Event type of each schema id
+	static final String[] EVENT_TYPES = { null, "onFindServers", "onAddNodes", "onRead", "onWrite",
+			"onActivateSession", "onCreateSession" };
+
+	static final int STRING_NULL = 0;
+	static final int STRING_NEW = 1;
+	static final int STRING_FIRST_ENTRY = 2;
+
+	static final int ADDRESS_NULL = 0;
+	static final int ADDRESS_TEXT = 1;
+	static final int ADDRESS_IPV4 = 4;
+	static final int ADDRESS_IPV6 = 6;
+
+	// A new stream is started when the dictionary is full
+	static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	private final HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private boolean streamStarted;
+
+	public void encode(EventModel event, ByteArrayOutputStream output) throws IOException {
+		if (!streamStarted || dictionary.size() >= MAX_DICTIONARY_SIZE) {
+			dictionary.clear();
+			writeVarint(output, 0);
+			output.write(MAGIC);
+			streamStarted = true;
+		}
+		record.reset();
+		try {
+			writeRecord(event);
+		} catch (IOException e) {
+			// Strings of the record may be in the dictionary but not in the log
+			reset();
+			throw e;
+		} catch (RuntimeException e) {
+			reset();
+			throw e;
+		}
+		writeVarint(output, record.size());
+		record.writeTo(output);
+	}
+
+	public void reset() {
+		streamStarted = false;
+	}
+
+	private void writeRecord(EventModel event) throws IOException {
+		int schema = schemaOf(event);
+		writeVarint(record, schema);
+		writeVarint(record, event.getTimestamp());
+		switch (schema) {
+		case SCHEMA_ACTIVATE_SESSION:
+			ActiveSessionEventParam activeSession = (ActiveSessionEventParam) event.getEventParam();
+			writeString(activeSession.getSessionId());
+			writeString(activeSession.getAuthenToken());
+			writeString(activeSession.getUserName());
+			writeAddress(activeSession.getIpAddress());
+			writeVarint(record, activeSession.getPort() & 0xFFFFFFFFL);
+			break;
+		case SCHEMA_CREATE_SESSION:
+			CreateSessionEventParam createSession = (CreateSessionEventParam) event.getEventParam();
+			writeString(createSession.getSessionId());
+			writeString(createSession.getAuthenToken());
+			writeString(createSession.getSessionName());
+			writeString(createSession.getClientApplicationName());
+			UnsignedInteger maxResponseTime = createSession.getClientMaxResponseTime();
+			writeVarint(record, maxResponseTime == null ? 0 : maxResponseTime.longValue() + 1);
+			writeDouble(createSession.getClientRequestSessionTimeOut());
+			writeString(createSession.getSessionResult());
+			writeDouble(createSession.getResRevisedTimeOut());
+			writeAddress(createSession.getIpAddress());
+			writeVarint(record, createSession.getPort() & 0xFFFFFFFFL);
+			break;
+		case SCHEMA_JSON:
+			writeString(event.getEventType());
+			byte[] json = event.getEventParam() == null ? new byte[0]
+					: JSONUtil.getWriter(event.getEventParam().getClass(), false)
+							.writeValueAsBytes(event.getEventParam());
+			writeVarint(record, json.length);
+			record.write(json);
+			break;
+		default:
+			EventParamModel param = (EventParamModel) event.getEventParam();
+			writeString(param.getSessionId());
+			writeString(param.getAuthenToken());
+			writeString(param.getAuditId());
+			writeAddress(param.getIpAddress());
+			writeVarint(record, param.getPort() & 0xFFFFFFFFL);
+		}
+	}
+
+	private static int schemaOf(EventModel event) {
+		Object param = event.getEventParam();
+		String eventType = event.getEventType();
+		if (param instanceof EventParamModel) {
+			for (int schema = SCHEMA_FIND_SERVERS; schema <= SCHEMA_WRITE; schema++) {
+				if (EVENT_TYPES[schema].equals(eventType)) {
+					return schema;
+				}
+			}
+		} else if (param instanceof ActiveSessionEventParam) {
+			if (EVENT_TYPES[SCHEMA_ACTIVATE_SESSION].equals(eventType)) {
+				return SCHEMA_ACTIVATE_SESSION;
+			}
+		} else if (param instanceof CreateSessionEventParam) {
+			// The certificate timestamp has no binary form
+			if (EVENT_TYPES[SCHEMA_CREATE_SESSION].equals(eventType)
+					&& ((CreateSessionEventParam) param).getResTimeStamp() == null) {
+				return SCHEMA_CREATE_SESSION;
+			}
+		}
+		return SCHEMA_JSON;
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			writeVarint(record, STRING_NULL);
+			return;
+		}
+		Integer entry = dictionary.get(value);
+		if (entry != null) {
+			writeVarint(record, entry + STRING_FIRST_ENTRY);
+			return;
+		}
+		dictionary.put(value, dictionary.size());
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(record, STRING_NEW);
+		writeVarint(record, bytes.length);
+		record.write(bytes);
+	}
+
+	/**
+	 * Writes an address in 4 or 16 bytes if it is decoded to the same text,
+	 * otherwise as a string.
+	 */
+	private void writeAddress(String address) throws IOException {
+		if (address == null) {
+			record.write(ADDRESS_NULL);
+			return;
+		}
+		byte[] bytes = parseAddress(address);
+		if (bytes == null) {
+			record.write(ADDRESS_TEXT);
+			writeString(address);
+		} else {
+			record.write(bytes.length == 4 ? ADDRESS_IPV4 : ADDRESS_IPV6);
+			record.write(bytes);
+		}
+	}
+
+	private void writeDouble(Double value) {
+		if (value == null) {
+			record.write(0);
+			return;
+		}
+		record.write(1);
+		long bits = Double.doubleToLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			record.write((int) (bits >>> shift));
+		}
+	}
+
+	static void writeVarint(ByteArrayOutputStream output, long value) {
+		while ((value & ~0x7FL) != 0) {
+			output.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.write((int) value);
+	}
+
+	/**
+	 * @return the bytes of an IPv4 or IPv6 address literal or null
+	 */
+	static byte[] parseAddress(String address) {
+		if (address.indexOf(':') < 0) {
+			return parseIPv4(address);
+		}
+		if (address.indexOf('%') >= 0) {
+			// The scope would be lost
+			return null;
+		}
+		try {
+			// A text with a colon is never looked up
+			InetAddress inetAddress = InetAddress.getByName(address);
+			if (inetAddress instanceof Inet6Address && inetAddress.getHostAddress().equals(address)) {
+				return inetAddress.getAddress();
+			}
+		} catch (IOException e) {
+			// Not a literal
+		}
+		return null;
+	}
+
+	private static byte[] parseIPv4(String address) {
+		String[] parts = address.split("\\.", -1);
+		if (parts.length != 4) {
+			return null;
+		}
+		byte[] bytes = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			String part = parts[i];
+			if (part.isEmpty() || part.length() > 3 || (part.length() > 1 && part.charAt(0) == '0')) {
+				return null;
+			}
+			int value = 0;
+			for (int j = 0; j < part.length(); j++) {
+				char c = part.charAt(j);
+				if (c < '0' || c > '9') {
+					return null;
+				}
+				value = value * 10 + (c - '0');
+			}
+			if (value > 255) {
+				return null;
+			}
+			bytes[i] = (byte) value;
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,242 @@
+package org.dfki.iot.attack.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dfki.iot.attack.model.ActiveSessionEventParam;
+import org.dfki.iot.attack.model.CreateSessionEventParam;
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Reads the events of a log written by {@link BinaryAuditEncoder} one at a
+ * time. Parameters of events without a schema are returned as a JsonNode.
+ */
+public class BinaryAuditReader implements Closeable {
+
+	private final InputStream input;
+	private final List<String> dictionary = new ArrayList<String>();
+	private boolean streamStarted;
+
+	// The record being read
+	private byte[] record = new byte[256];
+	private int position;
+	private int limit;
+
+	public BinaryAuditReader(InputStream input) {
+		this.input = new BufferedInputStream(input, 64 * 1024);
+	}
+
+	/**
+	 * @return the next event or null at the end of the log
+	 */
+	public EventModel read() throws IOException {
+		for (;;) {
+			long length = readFrameLength();
+			if (length < 0) {
+				return null;
+			}
+			if (length == 0) {
+				byte[] magic = new byte[BinaryAuditEncoder.MAGIC.length];
+				readFully(magic, magic.length);
+				if (!Arrays.equals(magic, BinaryAuditEncoder.MAGIC)) {
+					throw new IOException("Not a binary audit log");
+				}
+				dictionary.clear();
+				streamStarted = true;
+				continue;
+			}
+			if (!streamStarted) {
+				throw new IOException("Not a binary audit log");
+			}
+			if (length > Integer.MAX_VALUE - 8) {
+				throw new IOException("Invalid record length " + length);
+			}
+			if (record.length < length) {
+				record = new byte[(int) Math.max(length, record.length * 2L)];
+			}
+			readFully(record, (int) length);
+			position = 0;
+			limit = (int) length;
+			return readRecord();
+		}
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+
+	private EventModel readRecord() throws IOException {
+		int schema = (int) readVarint();
+		long timestamp = readVarint();
+		EventModel event;
+		switch (schema) {
+		case BinaryAuditEncoder.SCHEMA_FIND_SERVERS:
+		case BinaryAuditEncoder.SCHEMA_ADD_NODES:
+		case BinaryAuditEncoder.SCHEMA_READ:
+		case BinaryAuditEncoder.SCHEMA_WRITE:
+			EventParamModel param = new EventParamModel();
+			param.setSessionId(readString());
+			param.setAuthenToken(readString());
+			param.setAuditId(readString());
+			param.setIpAddress(readAddress());
+			param.setPort((int) readVarint());
+			event = new EventModel(BinaryAuditEncoder.EVENT_TYPES[schema], param);
+			break;
+		case BinaryAuditEncoder.SCHEMA_ACTIVATE_SESSION:
+			ActiveSessionEventParam activeSession = new ActiveSessionEventParam();
+			activeSession.setSessionId(readString());
+			activeSession.setAuthenToken(readString());
+			activeSession.setUserName(readString());
+			activeSession.setIpAddress(readAddress());
+			activeSession.setPort((int) readVarint());
+			event = new EventModel(BinaryAuditEncoder.EVENT_TYPES[schema], activeSession);
+			break;
+		case BinaryAuditEncoder.SCHEMA_CREATE_SESSION:
+			CreateSessionEventParam createSession = new CreateSessionEventParam();
+			createSession.setSessionId(readString());
+			createSession.setAuthenToken(readString());
+			createSession.setSessionName(readString());
+			createSession.setClientApplicationName(readString());
+			long maxResponseTime = readVarint();
+			createSession.setClientMaxResponseTime(
+					maxResponseTime == 0 ? null : UnsignedInteger.valueOf(maxResponseTime - 1));
+			createSession.setClientRequestSessionTimeOut(readDouble());
+			createSession.setSessionResult(readString());
+			createSession.setResRevisedTimeOut(readDouble());
+			createSession.setIpAddress(readAddress());
+			createSession.setPort((int) readVarint());
+			event = new EventModel(BinaryAuditEncoder.EVENT_TYPES[schema], createSession);
+			break;
+		case BinaryAuditEncoder.SCHEMA_JSON:
+			String eventType = readString();
+			int length = (int) readVarint();
+			require(length);
+			Object json = length == 0 ? null
+					: JSONUtil.getReader(JsonNode.class).readValue(record, position, length);
+			position += length;
+			event = new EventModel(eventType, json);
+			break;
+		default:
+			throw new IOException("Unknown audit record schema " + schema);
+		}
+		event.setTimestamp(timestamp);
+		return event;
+	}
+
+	private String readString() throws IOException {
+		long code = readVarint();
+		if (code == BinaryAuditEncoder.STRING_NULL) {
+			return null;
+		}
+		if (code == BinaryAuditEncoder.STRING_NEW) {
+			int length = (int) readVarint();
+			require(length);
+			String value = new String(record, position, length, StandardCharsets.UTF_8);
+			position += length;
+			dictionary.add(value);
+			return value;
+		}
+		long entry = code - BinaryAuditEncoder.STRING_FIRST_ENTRY;
+		if (entry >= dictionary.size()) {
+			throw new IOException("Unknown audit string " + entry);
+		}
+		return dictionary.get((int) entry);
+	}
+
+	private String readAddress() throws IOException {
+		require(1);
+		int type = record[position++];
+		switch (type) {
+		case BinaryAuditEncoder.ADDRESS_NULL:
+			return null;
+		case BinaryAuditEncoder.ADDRESS_TEXT:
+			return readString();
+		case BinaryAuditEncoder.ADDRESS_IPV4:
+		case BinaryAuditEncoder.ADDRESS_IPV6:
+			int length = type == BinaryAuditEncoder.ADDRESS_IPV4 ? 4 : 16;
+			require(length);
+			byte[] bytes = Arrays.copyOfRange(record, position, position + length);
+			position += length;
+			return InetAddress.getByAddress(bytes).getHostAddress();
+		default:
+			throw new IOException("Unknown audit address type " + type);
+		}
+	}
+
+	private Double readDouble() throws IOException {
+		require(1);
+		if (record[position++] == 0) {
+			return null;
+		}
+		require(8);
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | (record[position++] & 0xFF);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			require(1);
+			int b = record[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint in audit record");
+	}
+
+	private void require(int length) throws IOException {
+		if (length < 0 || limit - position < length) {
+			throw new IOException("Truncated audit record");
+		}
+	}
+
+	/**
+	 * @return the length of the next frame or -1 at the end of the log
+	 */
+	private long readFrameLength() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = input.read();
+			if (b < 0) {
+				if (shift == 0) {
+					return -1;
+				}
+				throw new EOFException("Truncated audit log");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid frame length in audit log");
+	}
+
+	private void readFully(byte[] buffer, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int count = input.read(buffer, offset, length - offset);
+			if (count < 0) {
+				throw new EOFException("Truncated audit log");
+			}
+			offset += count;
+		}
+	}
+
+}
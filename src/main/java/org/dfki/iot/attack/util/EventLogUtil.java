@@ -6,10 +6,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.ObjectNode;
 import org.dfki.iot.attack.model.CreateSessionEventParam;
 import org.dfki.iot.attack.model.EventModel;
 import org.opcfoundation.ua.core.CreateSessionRequest;
@@ -17,10 +15,19 @@ import org.opcfoundation.ua.core.CreateSessionResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 public class EventLogUtil {
 
 	private static final Logger myLogger = LoggerFactory.getLogger(EventLogUtil.class);
-	private static final File serverEventLogfile = new File("./src/main/resources/logs/event.log");
+	// Segments event-<time>.log or .bin of the server event log
+	private static final File serverEventLogDirectory = new File("./src/main/resources/logs");
+	private static final String serverEventLogName = "event";
+	private static volatile AuditPipeline serverEventPipeline;
+	// Set on shutdown, the log is not opened again by late events
+	private static boolean serverEventLogClosed;
+	// How long a request waits for its event to be durable, 0 to not wait
+	private static volatile long awaitDurableMillis;
 	private static final File clientEventLogfile = new File("./src/main/resources/logs/clientEvents.log ");
 
 	public static void main(String[] args) {
@@ -44,44 +51,93 @@ public class EventLogUtil {
 	}
 
 	/**
-	 * Method to convert Object to Json and write to a File.
+	 * Method to convert Object to Json and write to a File. The event is
+	 * handed to the {@link AuditPipeline} and written by its writer thread;
+	 * the caller waits for it to be durable if audit.awaitDurableMillis is
+	 * set.
 	 * 
 	 * @param eventModel
 	 * 
 	 */
 	public static void writeToServerEventLog(EventModel eventModel) {
-
-		try {
-
-			if (!serverEventLogfile.exists()) {
-				serverEventLogfile.createNewFile();
+		AuditPipeline pipeline = serverEventPipeline;
+		if (pipeline == null) {
+			pipeline = openServerEventPipeline();
+		}
+		if (pipeline != null) {
+			long awaitMillis = awaitDurableMillis;
+			if (awaitMillis > 0) {
+				pipeline.publishAndAwait(eventModel, awaitMillis);
+			} else {
+				pipeline.publish(eventModel);
 			}
+		}
+	}
 
-			String text = JSONUtil.getJSONString(eventModel) + "\n";
+	/**
+	 * Writes the event to the server event log and waits until it is
+	 * durable.
+	 * 
+	 * @return false if the event is not durable within the timeout
+	 */
+	public static boolean writeToServerEventLog(EventModel eventModel, long timeoutMillis) {
+		AuditPipeline pipeline = serverEventPipeline;
+		if (pipeline == null) {
+			pipeline = openServerEventPipeline();
+		}
+		return pipeline != null && pipeline.publishAndAwait(eventModel, timeoutMillis);
+	}
 
-			FileWriter writer = new FileWriter(serverEventLogfile, true);
-			writer.write(text);
-			writer.flush();
-			writer.close();
+	/**
+	 * Writes the pending server events and closes the server event log.
+	 * Events written afterwards are dropped, the log is not opened again.
+	 */
+	public static synchronized void closeServerEventLog() {
+		serverEventLogClosed = true;
+		if (serverEventPipeline != null) {
+			serverEventPipeline.close();
+			serverEventPipeline = null;
+		}
+	}
 
-		} catch (FileNotFoundException e) {
+	private static synchronized AuditPipeline openServerEventPipeline() {
+		if (serverEventPipeline == null && !serverEventLogClosed) {
 			try {
-
-				serverEventLogfile.createNewFile();
-
-				String text = JSONUtil.getJSONString(eventModel) + "\n";
-
-				FileWriter writer = new FileWriter(serverEventLogfile, true);
-				writer.write(text);
-				writer.flush();
-				writer.close();
-			} catch (IOException e1) {
-				e1.printStackTrace();
+				boolean binary = isBinaryServerEventLog();
+				SegmentedEventLog log = new SegmentedEventLog(serverEventLogDirectory, serverEventLogName, binary,
+						GenericUtil.readServerPropertyConfigFile("audit.segment.maxBytes", 64 * 1024 * 1024),
+						GenericUtil.readServerPropertyConfigFile("audit.segment.maxMillis", 24 * 60 * 60 * 1000),
+						GenericUtil.readServerPropertyConfigFile("audit.segment.indexIntervalBytes", 64 * 1024),
+						TimeUnit.DAYS.toMillis(
+								GenericUtil.readServerPropertyConfigFile("audit.retention.compressAfterDays", 7)),
+						TimeUnit.DAYS.toMillis(
+								GenericUtil.readServerPropertyConfigFile("audit.retention.deleteAfterDays", 0)));
+				serverEventPipeline = new AuditPipeline(log, binary ? new BinaryAuditEncoder() : new JsonAuditEncoder(),
+						GenericUtil.readServerPropertyConfigFile("audit.bufferSize", 8192),
+						GenericUtil.readServerPropertyConfigFile("audit.batchSize", 256),
+						AuditPipeline.Durability.forName(GenericUtil.readServerPropertyConfigFile("audit.durability")),
+						GenericUtil.readServerPropertyConfigFile("audit.syncIntervalMillis", 1000));
+				awaitDurableMillis = GenericUtil.readServerPropertyConfigFile("audit.awaitDurableMillis", 0);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		return serverEventPipeline;
+	}
+
+	/**
+	 * Calls the visitor with the server events from fromMillis (inclusive) to
+	 * toMillis (exclusive). Only the segments of the time range are read.
+	 * 
+	 * @return the number of visited events
+	 */
+	public static long queryServerEventLog(long fromMillis, long toMillis, SegmentedEventLog.EventVisitor visitor) {
+		return SegmentedEventLog.query(serverEventLogDirectory, serverEventLogName, isBinaryServerEventLog(),
+				fromMillis, toMillis, visitor);
+	}
+
+	private static boolean isBinaryServerEventLog() {
+		return "binary".equals(GenericUtil.readServerPropertyConfigFile("audit.format"));
 	}
 
 	/**
@@ -122,10 +178,9 @@ public class EventLogUtil {
 				clientEventLogfile.createNewFile();
 			}
 
-			ObjectMapper mapper = new ObjectMapper();
-			JsonNode rootNode = mapper.createObjectNode();
-			((ObjectNode) rootNode).put("clientName", clientName);
-			((ObjectNode) rootNode).put("authenticationToken", authenticationToken);
+			ObjectNode rootNode = JSONUtil.createObjectNode();
+			rootNode.put("clientName", clientName);
+			rootNode.put("authenticationToken", authenticationToken);
 			String text = JSONUtil.getJSONString(rootNode) + "\n";
 
 			FileWriter writer = new FileWriter(clientEventLogfile,true);
@@ -138,10 +193,9 @@ public class EventLogUtil {
 
 				clientEventLogfile.createNewFile();
 
-				ObjectMapper mapper = new ObjectMapper();
-				JsonNode rootNode = mapper.createObjectNode();
-				((ObjectNode) rootNode).put("clientName", clientName);
-				((ObjectNode) rootNode).put("authenticationToken", authenticationToken);
+				ObjectNode rootNode = JSONUtil.createObjectNode();
+				rootNode.put("clientName", clientName);
+				rootNode.put("authenticationToken", authenticationToken);
 				String text = JSONUtil.getJSONString(rootNode) + "\n";
 
 				FileWriter writer = new FileWriter(clientEventLogfile,true);
@@ -117,12 +117,21 @@ public class GenericUtil {
 		return readPropertyFile(filename, propertyName);
 	}
 
-	public static boolean enableAuditing(String operationName) {
-		String operations = readServerPropertyConfigFile("monitor.operations");
-		if (null != operations && operations.contains(operationName)) {
-			return true;
+	/**
+	 * @return the integer value of the server property or defaultValue if the
+	 *         property is missing or not a number
+	 */
+	public static int readServerPropertyConfigFile(String propertyName, int defaultValue) {
+		String value = readServerPropertyConfigFile(propertyName);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			myLogger.warn("Property [ " + propertyName + " ] is not a number: " + value);
+			return defaultValue;
 		}
-		return false;
 	}
 
 	public static String getCurrentMachineIpAddress() throws UnknownHostException {
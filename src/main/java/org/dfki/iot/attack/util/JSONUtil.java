@@ -3,61 +3,105 @@ package org.dfki.iot.attack.util;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.JsonParseException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.SerializationConfig;
+import org.dfki.iot.attack.model.CreateSessionEventParam;
+import org.dfki.iot.attack.model.EventModel;
 import org.dfki.iot.attack.model.RoverAModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.type.TypeReference;
-
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * JSON conversion of the models. The mapper and the writers and readers are
+ * created once and shared; they are thread safe, and a writer or reader for a
+ * type keeps its serializer so that types are introspected only once.
+ */
 public class JSONUtil {
 
 	// Create Logger
 	private static final Logger myLogger = LoggerFactory.getLogger(JSONUtil.class);
 
-	public static String getJSONString(Object object) {
+	private static final ObjectMapper mapper = new ObjectMapper();
 
-		ObjectMapper mapper = new ObjectMapper();
+	private static final boolean jsonPrettyPrint = "true"
+			.equals(GenericUtil.readClientPropertyConfigFile("jsonPrettyPrint"));
 
-		if ("true".equals(GenericUtil.readClientPropertyConfigFile("jsonPrettyPrint"))) {
-			mapper.enable(SerializationConfig.Feature.INDENT_OUTPUT);
-		}
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter> prettyWriters = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
 
-		String text = null;
-		try {
-			text = mapper.writeValueAsString(object);
-			// myLogger.info("JSON String : " + text);
-		} catch (JsonGenerationException e) {
-			myLogger.debug(
-					"\n LocalizedMessage : " + e.getLocalizedMessage() + "\n  		 Message :: " + e.getMessage()
-							+ "\n toString :: " + e.toString() + "\n:		 StackTrace :: " + e.getStackTrace());
-			e.printStackTrace();
-		} catch (JsonMappingException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	private static final ObjectReader continentCountryMapReader = mapper
+			.readerFor(new TypeReference<HashMap<String, HashMap<String, Integer>>>() {
+			});
+
+	static {
+		// Models written on every request
+		getWriter(EventModel.class, false);
+		getWriter(CreateSessionEventParam.class, false);
+		getWriter(RoverAModel.class, jsonPrettyPrint);
+		getReader(RoverAModel.class);
+	}
+
+	/**
+	 * @return the shared writer for values of the type
+	 */
+	public static ObjectWriter getWriter(Class<?> type, boolean prettyPrint) {
+		ConcurrentHashMap<Class<?>, ObjectWriter> cache = prettyPrint ? prettyWriters : writers;
+		ObjectWriter writer = cache.get(type);
+		if (writer == null) {
+			writer = mapper.writerFor(type);
+			if (prettyPrint) {
+				writer = writer.withDefaultPrettyPrinter();
+			}
+			ObjectWriter existing = cache.putIfAbsent(type, writer);
+			if (existing != null) {
+				writer = existing;
+			}
 		}
+		return writer;
+	}
 
-		return text;
+	/**
+	 * @return the shared reader for values of the type
+	 */
+	public static ObjectReader getReader(Class<?> type) {
+		ObjectReader reader = readers.get(type);
+		if (reader == null) {
+			reader = mapper.readerFor(type);
+			ObjectReader existing = readers.putIfAbsent(type, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
 
+	public static ObjectNode createObjectNode() {
+		return mapper.createObjectNode();
 	}
 
-	public static String getJSONString(Object object,boolean jsonPrettyPrint) {
+	public static String getJSONString(Object object) {
+		return getJSONString(object, jsonPrettyPrint);
+	}
 
-		ObjectMapper mapper = new ObjectMapper();
+	public static String getJSONString(Object object, boolean jsonPrettyPrint) {
 
-		if (jsonPrettyPrint) {
-			mapper.enable(SerializationConfig.Feature.INDENT_OUTPUT);
+		if (object == null) {
+			// A writer is looked up by class, null has none
+			return "null";
 		}
-
 		String text = null;
 		try {
-			text = mapper.writeValueAsString(object);
+			text = getWriter(object.getClass(), jsonPrettyPrint).writeValueAsString(object);
 			// myLogger.info("JSON String : " + text);
 		} catch (JsonGenerationException e) {
 			myLogger.debug(
@@ -73,13 +117,12 @@ public class JSONUtil {
 		return text;
 
 	}
-	
+
 	public static Object getObjFromJSONString(String jsonString, Object objClass) {
-		ObjectMapper mapper = new ObjectMapper();
 
 		Object myObject = null;
 		try {
-			myObject = mapper.readValue(jsonString, objClass.getClass());
+			myObject = getReader(objClass.getClass()).readValue(jsonString);
 		} catch (JsonParseException e) {
 			e.printStackTrace();
 		} catch (JsonMappingException e) {
@@ -100,11 +143,8 @@ public class JSONUtil {
 
 		Map<String, HashMap<String, Integer>> map = new HashMap<String, HashMap<String, Integer>>();
 
-		com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-
 		try {
-			map = mapper.readValue(jsonString, new TypeReference<HashMap<String, HashMap<String, Integer>>>() {
-			});
+			map = continentCountryMapReader.readValue(jsonString);
 		} catch (JsonParseException e) {
 			e.printStackTrace();
 		} catch (JsonMappingException e) {
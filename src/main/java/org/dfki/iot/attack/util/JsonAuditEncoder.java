@@ -0,0 +1,26 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.dfki.iot.attack.model.EventModel;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Writes every event as one line of JSON.
+ */
+public class JsonAuditEncoder implements AuditEncoder {
+
+	private final ObjectWriter eventWriter = JSONUtil.getWriter(EventModel.class, false);
+
+	public void encode(EventModel event, ByteArrayOutputStream output) throws IOException {
+		output.write(eventWriter.writeValueAsBytes(event));
+		output.write('\n');
+	}
+
+	public void reset() {
+		// Every line stands alone
+	}
+
+}
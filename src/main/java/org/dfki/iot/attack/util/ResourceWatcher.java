@@ -0,0 +1,135 @@
+package org.dfki.iot.attack.util;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls listeners when a classpath resource that lives in a directory is
+ * modified. All resources are watched by one daemon thread with a single
+ * {@link WatchService}; resources inside a jar cannot be watched.
+ */
+public class ResourceWatcher {
+
+	private static final Logger myLogger = LoggerFactory.getLogger(ResourceWatcher.class);
+
+	private final WatchService watchService;
+	private final ConcurrentHashMap<Path, List<Runnable>> listeners = new ConcurrentHashMap<Path, List<Runnable>>();
+	private final ConcurrentHashMap<Path, WatchKey> directories = new ConcurrentHashMap<Path, WatchKey>();
+
+	public ResourceWatcher() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				processEvents();
+			}
+		}, "resource-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Calls listener on its own thread every time the resource is modified.
+	 *
+	 * @return the file of the resource or null if it cannot be watched
+	 */
+	public Path watch(String resourceName, Runnable listener) {
+		Path file = resourceFile(resourceName);
+		if (file == null) {
+			myLogger.warn("Resource [ " + resourceName + " ] is not a file and cannot be watched");
+			return null;
+		}
+		Path directory = file.getParent();
+		try {
+			synchronized (directories) {
+				if (!directories.containsKey(directory)) {
+					directories.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY));
+				}
+			}
+		} catch (IOException e) {
+			myLogger.warn("Unable to watch " + directory + ": " + e.toString());
+			return null;
+		}
+		List<Runnable> fileListeners = listeners.get(file);
+		if (fileListeners == null) {
+			List<Runnable> newListeners = new CopyOnWriteArrayList<Runnable>();
+			fileListeners = listeners.putIfAbsent(file, newListeners);
+			if (fileListeners == null) {
+				fileListeners = newListeners;
+			}
+		}
+		fileListeners.add(listener);
+		return file;
+	}
+
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the file of a classpath resource or null if it is not stored in
+	 *         a directory
+	 */
+	public static Path resourceFile(String resourceName) {
+		URL url = ResourceWatcher.class.getClassLoader().getResource(resourceName);
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return Paths.get(url.toURI()).toAbsolutePath();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private void processEvents() {
+		for (;;) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+			Path directory = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					continue;
+				}
+				List<Runnable> fileListeners = listeners.get(directory.resolve((Path) event.context()));
+				if (fileListeners == null) {
+					continue;
+				}
+				for (Runnable listener : fileListeners) {
+					try {
+						listener.run();
+					} catch (RuntimeException e) {
+						myLogger.error("Resource listener failed", e);
+					}
+				}
+			}
+			key.reset();
+		}
+	}
+
+}
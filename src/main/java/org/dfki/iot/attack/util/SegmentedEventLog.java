@@ -0,0 +1,597 @@
+package org.dfki.iot.attack.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.dfki.iot.attack.model.EventModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * An event log stored as segment files of bounded size and age, named
+ * &lt;name&gt;-&lt;creation time in milliseconds&gt;, so that a time range
+ * is read without scanning the whole log.
+ *
+ * Every segment has a sparse index file. An entry is added about every
+ * indexIntervalBytes and holds an offset and the largest event timestamp
+ * before it, so a query starts at the last entry before its start time even
+ * if events are slightly out of order. Binary records start a new stream at
+ * every entry, see {@link #prepareAppend()}. When a segment is sealed, its
+ * smallest and largest timestamps are added so that queries skip it as a
+ * whole.
+ *
+ * Old segments are compressed and later deleted by a background thread. A
+ * compressed segment is still queried, it is decompressed up to the offset.
+ *
+ * Appending is done by one thread, queries may run on any thread.
+ */
+public class SegmentedEventLog {
+
+	private static final Logger myLogger = LoggerFactory.getLogger(SegmentedEventLog.class);
+
+	/**
+	 * Receives the events of a query.
+	 */
+	public interface EventVisitor {
+		/**
+		 * @return false to stop the query
+		 */
+		boolean visit(EventModel event);
+	}
+
+	private static final byte INDEX_ENTRY = 'E';
+	private static final byte INDEX_SEAL = 'S';
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String COMPRESSED_SUFFIX = ".gz";
+	private static final int START_DIGITS = 13;
+
+	/**
+	 * A segment file and its index, loaded for a query or retention.
+	 */
+	private static class Segment {
+		final File file;
+		final File indexFile;
+		final boolean compressed;
+		long[] timestamps = new long[16];
+		long[] offsets = new long[16];
+		int entries;
+		boolean sealed;
+		long minTimestamp;
+		long maxTimestamp;
+
+		Segment(File file, File indexFile, boolean compressed) {
+			this.file = file;
+			this.indexFile = indexFile;
+			this.compressed = compressed;
+		}
+
+		/**
+		 * Loads the index; a missing or truncated index gives fewer entries.
+		 */
+		void load() {
+			try {
+				DataInputStream input = new DataInputStream(
+						new BufferedInputStream(new FileInputStream(indexFile)));
+				try {
+					for (;;) {
+						byte type = input.readByte();
+						if (type == INDEX_ENTRY) {
+							long timestamp = input.readLong();
+							long offset = input.readLong();
+							if (entries == timestamps.length) {
+								timestamps = Arrays.copyOf(timestamps, entries * 2);
+								offsets = Arrays.copyOf(offsets, entries * 2);
+							}
+							timestamps[entries] = timestamp;
+							offsets[entries] = offset;
+							entries++;
+						} else if (type == INDEX_SEAL) {
+							minTimestamp = input.readLong();
+							maxTimestamp = input.readLong();
+							input.readLong();
+							sealed = true;
+						} else {
+							return;
+						}
+					}
+				} finally {
+					input.close();
+				}
+			} catch (EOFException e) {
+				// End of the index
+			} catch (IOException e) {
+				myLogger.warn("Unable to read index " + indexFile + ": " + e.toString());
+			}
+		}
+
+		/**
+		 * @return the offset of the first event that may be at or after the
+		 *         time
+		 */
+		long seek(long timestamp) {
+			long offset = 0;
+			for (int i = 0; i < entries && timestamps[i] < timestamp; i++) {
+				offset = offsets[i];
+			}
+			return offset;
+		}
+
+		/**
+		 * @return the time of the latest event, or of the last change of an
+		 *         unsealed segment
+		 */
+		long lastTime() {
+			return sealed ? maxTimestamp : file.lastModified();
+		}
+	}
+
+	private final File directory;
+	private final String name;
+	private final boolean binary;
+	private final String suffix;
+	private final long maxSegmentBytes;
+	private final long maxSegmentMillis;
+	private final long indexIntervalBytes;
+	private final long compressAfterMillis;
+	private final long deleteAfterMillis;
+	private final ExecutorService retentionExecutor;
+
+	// The segment being appended to, only used by the appending thread
+	private volatile File activeFile;
+	private FileChannel channel;
+	private OutputStream output;
+	private DataOutputStream index;
+	private long segmentCreated;
+	private long segmentSize;
+	private long lastIndexOffset;
+	private long lastSegmentStart;
+	private long minTimestamp;
+	private long maxTimestamp;
+	private boolean indexPoint;
+
+	/**
+	 * @param name
+	 *            prefix of the segment files
+	 * @param binary
+	 *            true for records of {@link BinaryAuditEncoder}, false for
+	 *            JSON lines
+	 * @param compressAfterMillis
+	 *            age of the latest event of a segment after which it is
+	 *            compressed, 0 to not compress
+	 * @param deleteAfterMillis
+	 *            age of the latest event of a segment after which it is
+	 *            deleted, 0 to keep all segments
+	 */
+	public SegmentedEventLog(File directory, String name, boolean binary, long maxSegmentBytes, long maxSegmentMillis,
+			long indexIntervalBytes, long compressAfterMillis, long deleteAfterMillis) throws IOException {
+		this.directory = directory;
+		this.name = name;
+		this.binary = binary;
+		this.suffix = suffix(binary);
+		this.maxSegmentBytes = Math.max(1, maxSegmentBytes);
+		this.maxSegmentMillis = maxSegmentMillis > 0 ? maxSegmentMillis : Long.MAX_VALUE;
+		this.indexIntervalBytes = Math.max(1, indexIntervalBytes);
+		this.compressAfterMillis = compressAfterMillis;
+		this.deleteAfterMillis = deleteAfterMillis;
+		// One retention run at a time, further requests while one runs are
+		// dropped
+		this.retentionExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(1), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "audit-retention");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+		directory.mkdirs();
+		openSegment();
+		applyRetention();
+	}
+
+	/**
+	 * Starts a new segment if the current one is full or too old. Called by
+	 * the appending thread before it encodes the next batch.
+	 *
+	 * @return true if the next batch starts at an index entry, binary records
+	 *         must then start a new stream
+	 */
+	public boolean prepareAppend() throws IOException {
+		if (segmentSize > 0 && (segmentSize >= maxSegmentBytes
+				|| System.currentTimeMillis() - segmentCreated >= maxSegmentMillis)) {
+			sealSegment();
+			openSegment();
+			applyRetention();
+		}
+		if (!indexPoint && segmentSize - lastIndexOffset >= indexIntervalBytes) {
+			indexPoint = true;
+		}
+		return indexPoint;
+	}
+
+	/**
+	 * Appends a batch of encoded events.
+	 *
+	 * @param minTimestamp
+	 *            smallest timestamp of the events of the batch
+	 * @param maxTimestamp
+	 *            largest timestamp of the events of the batch
+	 */
+	public void append(ByteArrayOutputStream batch, long minTimestamp, long maxTimestamp) throws IOException {
+		if (batch.size() == 0) {
+			return;
+		}
+		if (indexPoint) {
+			index.writeByte(INDEX_ENTRY);
+			index.writeLong(this.maxTimestamp);
+			index.writeLong(segmentSize);
+			index.flush();
+			lastIndexOffset = segmentSize;
+			indexPoint = false;
+		}
+		try {
+			batch.writeTo(output);
+			segmentSize += batch.size();
+		} catch (IOException e) {
+			// Roll back a partly written batch, so the next batch does not
+			// start in the middle of a record
+			try {
+				channel.truncate(segmentSize);
+			} catch (IOException truncateException) {
+				myLogger.warn("Unable to roll back audit segment " + activeFile + ": "
+						+ truncateException.toString());
+				segmentSize = channel.size();
+			}
+			throw e;
+		}
+		this.minTimestamp = Math.min(this.minTimestamp, minTimestamp);
+		this.maxTimestamp = Math.max(this.maxTimestamp, maxTimestamp);
+	}
+
+	/**
+	 * Forces the appended events of the current segment to the disk.
+	 */
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Seals the current segment.
+	 */
+	public void close() {
+		try {
+			sealSegment();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		retentionExecutor.shutdown();
+	}
+
+	/**
+	 * Calls the visitor with the events from fromMillis (inclusive) to
+	 * toMillis (exclusive), in the order they were written.
+	 *
+	 * @return the number of visited events
+	 */
+	public long query(long fromMillis, long toMillis, EventVisitor visitor) {
+		return query(directory, name, binary, fromMillis, toMillis, visitor);
+	}
+
+	/**
+	 * Queries the segments of a log that may be written by another process.
+	 *
+	 * @see #query(long, long, EventVisitor)
+	 */
+	public static long query(File directory, String name, boolean binary, long fromMillis, long toMillis,
+			EventVisitor visitor) {
+		long count = 0;
+		for (Segment segment : segments(directory, name, suffix(binary))) {
+			segment.load();
+			if (segment.sealed && (segment.maxTimestamp < fromMillis || segment.minTimestamp >= toMillis)) {
+				continue;
+			}
+			long[] visited = new long[1];
+			boolean more = readSegment(segment, binary, segment.seek(fromMillis), fromMillis, toMillis, visitor,
+					visited);
+			count += visited[0];
+			if (!more) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return false if the visitor stopped the query
+	 */
+	private static boolean readSegment(Segment segment, boolean binary, long offset, long fromMillis,
+			long toMillis, EventVisitor visitor, long[] visited) {
+		InputStream input;
+		boolean compressed = segment.compressed;
+		try {
+			input = new FileInputStream(segment.file);
+		} catch (IOException e) {
+			if (compressed) {
+				// Deleted by the retention meanwhile
+				return true;
+			}
+			try {
+				// Compressed by the retention meanwhile
+				input = new FileInputStream(new File(segment.file.getPath() + COMPRESSED_SUFFIX));
+				compressed = true;
+			} catch (IOException compressedException) {
+				// Deleted by the retention meanwhile
+				return true;
+			}
+		}
+		try {
+			if (compressed) {
+				input = new GZIPInputStream(input, 64 * 1024);
+			}
+			skipFully(input, offset);
+			if (binary) {
+				BinaryAuditReader reader = new BinaryAuditReader(input);
+				EventModel event;
+				while ((event = reader.read()) != null) {
+					if (!visit(event, fromMillis, toMillis, visitor, visited)) {
+						return false;
+					}
+				}
+			} else {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8),
+						64 * 1024);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					EventModel event;
+					try {
+						event = AuditLogConverter.parseEvent(line);
+					} catch (IOException e) {
+						// A damaged line, e.g. of a batch that could not be
+						// rolled back, the lines after it are still valid
+						myLogger.debug("Skipped invalid line in " + segment.file + ": " + e.toString());
+						continue;
+					}
+					if (!visit(event, fromMillis, toMillis, visitor, visited)) {
+						return false;
+					}
+				}
+			}
+		} catch (IOException e) {
+			// The end of the segment being written may be incomplete
+			myLogger.debug("Stopped reading " + segment.file + ": " + e.toString());
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return true;
+	}
+
+	private static boolean visit(EventModel event, long fromMillis, long toMillis, EventVisitor visitor,
+			long[] visited) {
+		if (event.getTimestamp() < fromMillis || event.getTimestamp() >= toMillis) {
+			return true;
+		}
+		visited[0]++;
+		return visitor.visit(event);
+	}
+
+	private void openSegment() throws IOException {
+		long now = System.currentTimeMillis();
+		long start = Math.max(now, lastSegmentStart + 1);
+		lastSegmentStart = start;
+		String baseName = name + "-" + String.format("%0" + START_DIGITS + "d", start);
+		File file = new File(directory, baseName + suffix);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		output = Channels.newOutputStream(channel);
+		index = new DataOutputStream(new FileOutputStream(new File(directory, baseName + INDEX_SUFFIX), true));
+		activeFile = file;
+		segmentCreated = now;
+		segmentSize = channel.size();
+		lastIndexOffset = segmentSize;
+		minTimestamp = Long.MAX_VALUE;
+		maxTimestamp = Long.MIN_VALUE;
+		indexPoint = true;
+	}
+
+	private void sealSegment() throws IOException {
+		try {
+			channel.force(false);
+			index.writeByte(INDEX_SEAL);
+			index.writeLong(minTimestamp);
+			index.writeLong(maxTimestamp);
+			index.writeLong(segmentSize);
+			index.flush();
+		} finally {
+			index.close();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Compresses and deletes old segments on the retention thread.
+	 */
+	private void applyRetention() {
+		if (compressAfterMillis <= 0 && deleteAfterMillis <= 0) {
+			return;
+		}
+		retentionExecutor.execute(new Runnable() {
+			public void run() {
+				long now = System.currentTimeMillis();
+				for (Segment segment : segments(directory, name, suffix)) {
+					if (segment.file.equals(activeFile)) {
+						continue;
+					}
+					segment.load();
+					long age = now - segment.lastTime();
+					if (deleteAfterMillis > 0 && age >= deleteAfterMillis) {
+						segment.file.delete();
+						segment.indexFile.delete();
+						myLogger.info("Deleted audit segment " + segment.file);
+					} else if (compressAfterMillis > 0 && age >= compressAfterMillis && !segment.compressed) {
+						compress(segment.file);
+					}
+				}
+			}
+		});
+	}
+
+	private static void compress(File file) {
+		File compressed = new File(file.getPath() + COMPRESSED_SUFFIX);
+		File temp = new File(file.getPath() + COMPRESSED_SUFFIX + ".tmp");
+		try {
+			InputStream input = new FileInputStream(file);
+			try {
+				OutputStream output = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024);
+				try {
+					byte[] buffer = new byte[64 * 1024];
+					int count;
+					while ((count = input.read(buffer)) >= 0) {
+						output.write(buffer, 0, count);
+					}
+				} finally {
+					output.close();
+				}
+			} finally {
+				input.close();
+			}
+			try {
+				Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			file.delete();
+			myLogger.info("Compressed audit segment " + file);
+		} catch (IOException e) {
+			temp.delete();
+			myLogger.warn("Unable to compress audit segment " + file + ": " + e.toString());
+		}
+	}
+
+	/**
+	 * @return the segments of the log ordered by creation time
+	 */
+	private static List<Segment> segments(File directory, final String name, final String suffix) {
+		String[] names = directory.list(new FilenameFilter() {
+			public boolean accept(File dir, String fileName) {
+				String baseName = fileName.endsWith(COMPRESSED_SUFFIX)
+						? fileName.substring(0, fileName.length() - COMPRESSED_SUFFIX.length()) : fileName;
+				return baseName.length() == name.length() + 1 + START_DIGITS + suffix.length()
+						&& baseName.startsWith(name + "-") && baseName.endsWith(suffix)
+						&& isDigits(baseName, name.length() + 1, name.length() + 1 + START_DIGITS);
+			}
+		});
+		List<Segment> segments = new ArrayList<Segment>();
+		if (names == null) {
+			return segments;
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			// A segment that is being compressed may exist in both forms
+			if (i + 1 < names.length && names[i + 1].equals(names[i] + COMPRESSED_SUFFIX)) {
+				continue;
+			}
+			boolean compressed = names[i].endsWith(COMPRESSED_SUFFIX);
+			String baseName = names[i].substring(0, name.length() + 1 + START_DIGITS);
+			segments.add(new Segment(new File(directory, names[i]), new File(directory, baseName + INDEX_SUFFIX),
+					compressed));
+		}
+		return segments;
+	}
+
+	private static boolean isDigits(String text, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (!Character.isDigit(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String suffix(boolean binary) {
+		return binary ? ".bin" : ".log";
+	}
+
+	private static void skipFully(InputStream input, long count) throws IOException {
+		while (count > 0) {
+			long skipped = input.skip(count);
+			if (skipped <= 0) {
+				if (input.read() < 0) {
+					throw new EOFException("Offset beyond the end of the segment");
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	private static long parseTime(String text) {
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			return Instant.parse(text).toEpochMilli();
+		}
+	}
+
+	/**
+	 * Prints the events of a time range as JSON lines. Times are milliseconds
+	 * or ISO-8601 instants.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 5 || !("json".equals(args[2]) || "binary".equals(args[2]))) {
+			System.out.println("Usage: SegmentedEventLog <directory> <name> json|binary <from> <to>");
+			return;
+		}
+		final ObjectWriter eventWriter = JSONUtil.getWriter(EventModel.class, false);
+		long count = query(new File(args[0]), args[1], "binary".equals(args[2]), parseTime(args[3]),
+				parseTime(args[4]), new EventVisitor() {
+					public boolean visit(EventModel event) {
+						try {
+							System.out.println(eventWriter.writeValueAsString(event));
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+						return true;
+					}
+				});
+		System.err.println(count + " events");
+	}
+
+}
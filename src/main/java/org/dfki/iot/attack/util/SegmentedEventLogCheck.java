@@ -0,0 +1,290 @@
+package org.dfki.iot.attack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dfki.iot.attack.model.EventModel;
+import org.dfki.iot.attack.model.EventParamModel;
+
+/**
+ * Reproducible check of {@link SegmentedEventLog}, for JSON lines and binary
+ * records:
+ * <ul>
+ * <li>events with slightly out of order timestamps are written to several
+ * segments with several index entries each, and every time range query
+ * returns exactly the events of the range in the order they were written,</li>
+ * <li>a visitor can stop a query,</li>
+ * <li>compressed segments are still queried, deleted segments are gone,</li>
+ * <li>damaged JSON lines are skipped and a truncated binary record ends the
+ * segment without losing the records before it.</li>
+ * </ul>
+ * Prints every failed check and exits with status 1 if there is one.
+ */
+public class SegmentedEventLogCheck {
+
+	private static final String NAME = "event";
+
+	// Events from 2017, old enough for any retention
+	private static final long FIRST_TIMESTAMP = 1500000000000L;
+
+	private static int failures;
+
+	public static void main(String[] args) throws Exception {
+		for (boolean binary : new boolean[] { false, true }) {
+			checkRangeQueries(binary);
+			checkRetention(binary);
+		}
+		checkSkippedLines();
+		checkTruncatedRecord();
+		if (failures > 0) {
+			System.out.println(failures + " segmented event log checks failed");
+			System.exit(1);
+		}
+		System.out.println("All segmented event log checks passed");
+	}
+
+	static void checkRangeQueries(boolean binary) throws IOException {
+		String format = binary ? "binary" : "json";
+		File directory = Files.createTempDirectory("event-log-check").toFile();
+		try {
+			SegmentedEventLog log = new SegmentedEventLog(directory, NAME, binary, 4096, 0, 256, 0, 0);
+			List<EventModel> events = events(500);
+			write(log, binary, events, 10);
+			check(format + ": several segments", segmentCount(directory, binary) > 2,
+					segmentCount(directory, binary) + " segments");
+			// The active segment is queried before it is sealed as well
+			checkRange(format + ": all, unsealed", directory, binary, events, 0, Long.MAX_VALUE);
+			log.close();
+
+			checkRange(format + ": all", directory, binary, events, 0, Long.MAX_VALUE);
+			long[][] ranges = { { timestamp(50), timestamp(120) }, { timestamp(0), timestamp(1) },
+					{ timestamp(499), timestamp(500) }, { timestamp(250) - 700, timestamp(260) + 300 },
+					{ 0, FIRST_TIMESTAMP - 10000 }, { timestamp(600), Long.MAX_VALUE } };
+			String[] rangeNames = { "events 50 to 119", "first event", "last event", "late events around 250",
+					"before the log", "after the log" };
+			for (int i = 0; i < ranges.length; i++) {
+				checkRange(format + ": " + rangeNames[i], directory, binary, events, ranges[i][0], ranges[i][1]);
+			}
+
+			final int[] visited = new int[1];
+			long count = SegmentedEventLog.query(directory, NAME, binary, 0, Long.MAX_VALUE,
+					new SegmentedEventLog.EventVisitor() {
+						public boolean visit(EventModel event) {
+							return ++visited[0] < 5;
+						}
+					});
+			check(format + ": visitor stops the query", count == 5 && visited[0] == 5, count + " events visited");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	static void checkRetention(boolean binary) throws Exception {
+		String format = binary ? "binary" : "json";
+		File directory = Files.createTempDirectory("event-log-check").toFile();
+		try {
+			// Sealed segments are compressed by the retention of the next
+			// segment
+			SegmentedEventLog log = new SegmentedEventLog(directory, NAME, binary, 4096, 0, 256, 1, 0);
+			List<EventModel> events = events(300);
+			write(log, binary, events, 10);
+			awaitFiles(directory, ".gz", segmentCount(directory, binary) - 1);
+			check(format + ": compressed", countFiles(directory, ".gz") > 0, "no compressed segment");
+			checkRange(format + ": compressed, all", directory, binary, events, 0, Long.MAX_VALUE);
+			checkRange(format + ": compressed, 100 to 200", directory, binary, events, timestamp(100),
+					timestamp(200));
+			log.close();
+		} finally {
+			delete(directory);
+		}
+
+		directory = Files.createTempDirectory("event-log-check").toFile();
+		try {
+			SegmentedEventLog log = new SegmentedEventLog(directory, NAME, binary, 4096, 0, 256, 0, 1);
+			write(log, binary, events(300), 10);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (segmentCount(directory, binary) > 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			check(format + ": deleted", segmentCount(directory, binary) == 1,
+					segmentCount(directory, binary) + " segments left");
+			log.close();
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Damaged lines of a JSON segment are skipped, the lines after them are
+	 * read.
+	 */
+	static void checkSkippedLines() throws IOException {
+		File directory = Files.createTempDirectory("event-log-check").toFile();
+		try {
+			SegmentedEventLog log = new SegmentedEventLog(directory, NAME, false, 1 << 20, 0, 256, 0, 0);
+			List<EventModel> events = events(3);
+			ByteArrayOutputStream batch = new ByteArrayOutputStream();
+			JsonAuditEncoder encoder = new JsonAuditEncoder();
+			encoder.encode(events.get(0), batch);
+			batch.write("{\"eventType\":\"onRead\",\"eventPa\n".getBytes(StandardCharsets.UTF_8));
+			batch.write("[1,2]\n\n".getBytes(StandardCharsets.UTF_8));
+			encoder.encode(events.get(1), batch);
+			encoder.encode(events.get(2), batch);
+			log.prepareAppend();
+			log.append(batch, timestamp(0), timestamp(2));
+			log.close();
+			checkRange("json: damaged lines skipped", directory, false, events, 0, Long.MAX_VALUE);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * A binary segment that ends in the middle of a record returns the records
+	 * before it.
+	 */
+	static void checkTruncatedRecord() throws IOException {
+		File directory = Files.createTempDirectory("event-log-check").toFile();
+		try {
+			SegmentedEventLog log = new SegmentedEventLog(directory, NAME, true, 1 << 20, 0, 256, 0, 0);
+			List<EventModel> events = events(4);
+			ByteArrayOutputStream batch = new ByteArrayOutputStream();
+			BinaryAuditEncoder encoder = new BinaryAuditEncoder();
+			log.prepareAppend();
+			for (EventModel event : events) {
+				encoder.encode(event, batch);
+			}
+			int complete = batch.size();
+			encoder.encode(event(99), batch);
+			byte[] content = batch.toByteArray();
+			batch.reset();
+			batch.write(content, 0, complete + (content.length - complete) / 2);
+			log.append(batch, timestamp(0), timestamp(99));
+			log.close();
+			checkRange("binary: truncated record", directory, true, events, 0, Long.MAX_VALUE);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Queries the range and compares the result with the written events in
+	 * the range.
+	 */
+	private static void checkRange(String name, File directory, boolean binary, List<EventModel> written,
+			long fromMillis, long toMillis) {
+		List<Long> expected = new ArrayList<Long>();
+		for (EventModel event : written) {
+			if (event.getTimestamp() >= fromMillis && event.getTimestamp() < toMillis) {
+				expected.add(event.getTimestamp());
+			}
+		}
+		final List<Long> found = new ArrayList<Long>();
+		long count = SegmentedEventLog.query(directory, NAME, binary, fromMillis, toMillis,
+				new SegmentedEventLog.EventVisitor() {
+					public boolean visit(EventModel event) {
+						found.add(event.getTimestamp());
+						return true;
+					}
+				});
+		check(name, expected.equals(found) && count == found.size(),
+				"expected " + expected.size() + " events, found " + found.size() + " " + found);
+	}
+
+	/**
+	 * Writes the events in batches like the audit pipeline does.
+	 */
+	private static void write(SegmentedEventLog log, boolean binary, List<EventModel> events, int batchSize)
+			throws IOException {
+		AuditEncoder encoder = binary ? new BinaryAuditEncoder() : new JsonAuditEncoder();
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		for (int from = 0; from < events.size(); from += batchSize) {
+			if (log.prepareAppend()) {
+				encoder.reset();
+			}
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int i = from; i < Math.min(events.size(), from + batchSize); i++) {
+				encoder.encode(events.get(i), batch);
+				min = Math.min(min, events.get(i).getTimestamp());
+				max = Math.max(max, events.get(i).getTimestamp());
+			}
+			log.append(batch, min, max);
+			batch.reset();
+		}
+	}
+
+	/**
+	 * @return events one second apart, every third one is 1.5 seconds late
+	 */
+	private static List<EventModel> events(int count) {
+		List<EventModel> events = new ArrayList<EventModel>();
+		for (int i = 0; i < count; i++) {
+			events.add(event(i));
+		}
+		return events;
+	}
+
+	private static EventModel event(int number) {
+		EventParamModel param = new EventParamModel();
+		param.setAuditId("audit-" + number);
+		param.setIpAddress("10.0.0." + (number % 250));
+		param.setPort(4840);
+		EventModel event = new EventModel(number % 2 == 0 ? "onRead" : "onWrite", param);
+		event.setTimestamp(timestamp(number) - (number % 3 == 2 ? 1500 : 0));
+		return event;
+	}
+
+	private static long timestamp(int number) {
+		return FIRST_TIMESTAMP + number * 1000L;
+	}
+
+	private static int segmentCount(File directory, boolean binary) {
+		return countFiles(directory, binary ? ".bin" : ".log") + countFiles(directory, ".gz");
+	}
+
+	private static int countFiles(File directory, String suffix) {
+		int count = 0;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.endsWith(suffix)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static void awaitFiles(File directory, String suffix, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (countFiles(directory, suffix) < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static void check(String name, boolean passed, String detail) {
+		if (passed) {
+			System.out.println("ok     " + name);
+		} else {
+			failures++;
+			System.out.println("FAILED " + name + ": " + detail);
+		}
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}